@@ -7,14 +7,20 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 
+import com.github.davidmoten.bplustree.internal.BulkLoader;
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.FactoryProvider;
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
 import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.Options;
+import com.github.davidmoten.bplustree.internal.Path;
+import com.github.davidmoten.bplustree.internal.Rebalancer;
 import com.github.davidmoten.bplustree.internal.Split;
 import com.github.davidmoten.bplustree.internal.file.FactoryFile;
 import com.github.davidmoten.bplustree.internal.memory.FactoryMemory;
@@ -25,21 +31,43 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
     private static final int MAX_KEYS_NOT_SPECIFIED = -1;
     private static final int DEFAULT_NUM_KEYS = 4;
+    private static final int NODE_SIZE_NOT_SPECIFIED = -1;
 
     private final Options<K, V> options;
     private final Factory<K, V> factory;
 
     /**
      * Pointer to the root node. It may be a leaf or an inner node, but it is never
-     * null.
+     * null. Volatile so that when the factory copies on write, readers on other
+     * threads see a consistent snapshot of the tree.
+     */
+    private volatile Node<K, V> root;
+
+    /**
+     * The non-leaf nodes on the path from the root to the rightmost leaf (root
+     * first). Only used when {@link Options#cacheRightmostPath()} is true and only
+     * valid when {@code rightmostLeaf} is non-null.
      */
-    private Node<K, V> root;
+    private final List<NonLeaf<K, V>> rightmostPath = new ArrayList<>();
+
+    /** Reused by inserts to record the descent from the root. */
+    private final Path<K, V> insertPath = new Path<K, V>();
+
+    /** Reused by deletes to record the descent from the root. */
+    private final Path<K, V> deletePath = new Path<K, V>();
+
+    /** The rightmost leaf or null if the rightmost path is not cached. */
+    private Leaf<K, V> rightmostLeaf;
 
     /** Create a new empty tree. */
     private BPlusTree(int maxLeafKeys, int maxInnerKeys, boolean uniqueKeys, Runnable onClose,
-            Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider) {
-        this.options = new Options<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, comparator, factoryProvider);
+            Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider, boolean cacheRightmostPath,
+            SplitPolicy splitPolicy) {
+        this.options = new Options<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, comparator, factoryProvider,
+                cacheRightmostPath, splitPolicy);
         this.factory = options.factoryProvider().createFactory(options);
+        Preconditions.checkArgument(!(cacheRightmostPath && factory.copyOnWrite()),
+                "cacheRightmostPath cannot be used with concurrent readers");
         this.root = factory.loadOrCreateRoot();
         factory.root(root);
     }
@@ -52,6 +80,21 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         return new BuilderFile();
     }
 
+    /**
+     * Returns a builder for a tree that stores nodes and values in the same layout
+     * as a file tree but in direct (off-heap) buffers instead of files. Nothing is
+     * written to disk and the memory is released when the tree is closed. The
+     * nodes are not objects on the heap so a large tree adds little work for the
+     * garbage collector. Options concerning files (such as
+     * {@link BuilderFile2#maxMappedSegments(int)} and
+     * {@link BuilderFile2#durability(Durability)}) do not apply.
+     * 
+     * @return builder
+     */
+    public static BuilderFile2 offHeap() {
+        return new BuilderFile2(null);
+    }
+
     public static final class BuilderFile {
 
         BuilderFile() {
@@ -75,7 +118,16 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         int segmentSizeBytes = 50 * 1024 * 1024;
         int maxLeafKeys = MAX_KEYS_NOT_SPECIFIED;
         int maxNonLeafKeys = MAX_KEYS_NOT_SPECIFIED;
+        int nodeSizeBytes = NODE_SIZE_NOT_SPECIFIED;
         boolean uniqueKeys = false;
+        boolean cacheRightmostPath = false;
+        SplitPolicy splitPolicy = SplitPolicy.HALF;
+        boolean concurrentReaders = false;
+        int maxMappedSegments = LargeMappedByteBuffer.MAX_MAPPED_SEGMENTS_UNBOUNDED;
+        double prepareNextSegmentFraction = LargeMappedByteBuffer.PREPARE_NEXT_SEGMENT_DISABLED;
+        boolean preTouch = false;
+        Durability durability = Durability.ON_COMMIT;
+        int formatVersion = FactoryFile.FORMAT_VERSION_1;
         Runnable onClose;
 
         BuilderFile2(File directory) {
@@ -88,7 +140,10 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         }
 
         private static void clearDirectory(File directory) {
-            if (directory.exists()) {
+            if (directory == null) {
+                // off-heap, nothing to clear
+                return;
+            } else if (directory.exists()) {
                 for (File f : directory.listFiles()) {
                     f.delete();
                 }
@@ -127,11 +182,153 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return uniqueKeys(true);
         }
 
+        /**
+         * If true then the path from the root to the rightmost leaf is cached and
+         * inserts of keys greater than or equal to the current maximum key go straight
+         * to the rightmost leaf without a descent from the root. Use this when keys are
+         * inserted in mostly increasing order (for example timestamps).
+         * 
+         * @param cacheRightmostPath whether to cache the rightmost path
+         * @return this
+         */
+        public BuilderFile2 cacheRightmostPath(boolean cacheRightmostPath) {
+            this.cacheRightmostPath = cacheRightmostPath;
+            return this;
+        }
+
+        public BuilderFile2 cacheRightmostPath() {
+            return cacheRightmostPath(true);
+        }
+
+        /**
+         * Sets the policy that decides where full nodes are split. The default is
+         * {@link SplitPolicy#HALF}. Use {@link SplitPolicy#adaptive()} for
+         * sequential workloads so that nodes end up nearly full.
+         * 
+         * @param splitPolicy split policy
+         * @return this
+         */
+        public BuilderFile2 splitPolicy(SplitPolicy splitPolicy) {
+            Preconditions.checkNotNull(splitPolicy);
+            this.splitPolicy = splitPolicy;
+            return this;
+        }
+
         public BuilderFile2 maxKeys(int maxKeys) {
             maxLeafKeys(maxKeys);
             return maxNonLeafKeys(maxKeys);
         }
 
+        /**
+         * Sets the maximum number of keys in leaf and non-leaf nodes to as many as fit
+         * in a node of {@code nodeSizeBytes} bytes given the size of the keys and the
+         * format version. Larger nodes (for example 16KB or 64KB) make the tree
+         * shallower so that a search reads fewer pages. Cannot be combined with
+         * {@link #maxKeys(int)}. Nodes of more than 255 keys need format version 2 or
+         * 3 (see {@link #formatVersion(int)}).
+         * 
+         * @param nodeSizeBytes size of a node in bytes
+         * @return this
+         */
+        public BuilderFile2 nodeSizeBytes(int nodeSizeBytes) {
+            Preconditions.checkArgument(nodeSizeBytes > 0, "nodeSizeBytes must be positive");
+            this.nodeSizeBytes = nodeSizeBytes;
+            return this;
+        }
+
+        /**
+         * If true then other threads may search the tree while a single thread
+         * inserts into it. Inserts copy the nodes they modify (copy-on-write) and
+         * publish the new root atomically so readers always see a consistent tree
+         * without locking. The copies make inserts slower and the index files larger.
+         * 
+         * @param concurrentReaders whether to support concurrent readers
+         * @return this
+         */
+        public BuilderFile2 concurrentReaders(boolean concurrentReaders) {
+            this.concurrentReaders = concurrentReaders;
+            return this;
+        }
+
+        public BuilderFile2 concurrentReaders() {
+            return concurrentReaders(true);
+        }
+
+        /**
+         * Sets the maximum number of segments of each of the index and value files
+         * that are memory-mapped at any one time (by default unbounded). When the
+         * maximum is reached the least recently used segment is unmapped and its file
+         * closed. Use this to bound the number of memory maps and file descriptors
+         * used by very large trees. Cannot be combined with
+         * {@link #concurrentReaders()}.
+         * 
+         * @param maxMappedSegments maximum number of mapped segments per file set
+         * @return this
+         */
+        public BuilderFile2 maxMappedSegments(int maxMappedSegments) {
+            Preconditions.checkArgument(maxMappedSegments > 0, "maxMappedSegments must be positive");
+            this.maxMappedSegments = maxMappedSegments;
+            return this;
+        }
+
+        /**
+         * Once writes to the index or value files pass {@code fraction} of the way
+         * through a segment the next segment file is created and mapped on a
+         * background thread so that the insert that crosses into it does not block on
+         * file creation. If {@code preTouch} is true then every page of the prepared
+         * segment is also touched so that the first writes to it do not page-fault
+         * into a sparse file.
+         * 
+         * @param fraction how far through a segment writes must be before the next
+         *                 segment is prepared, greater than 0 and at most 1
+         * @param preTouch whether to touch every page of a prepared segment
+         * @return this
+         */
+        public BuilderFile2 prepareNextSegment(double fraction, boolean preTouch) {
+            Preconditions.checkArgument(fraction > 0 && fraction <= 1, "fraction must be in (0, 1]");
+            this.prepareNextSegmentFraction = fraction;
+            this.preTouch = preTouch;
+            return this;
+        }
+
+        public BuilderFile2 prepareNextSegment() {
+            return prepareNextSegment(0.75, false);
+        }
+
+        /**
+         * Sets when changes are forced to disk. The default is
+         * {@link Durability#ON_COMMIT}.
+         * 
+         * @param durability durability mode
+         * @return this
+         */
+        public BuilderFile2 durability(Durability durability) {
+            Preconditions.checkNotNull(durability);
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets the on-disk format of nodes for a new tree (an existing tree is always
+         * opened in the format it was written in). Version 1 (the default) packs
+         * fields and stores them big-endian. Version 2 aligns every position and key
+         * to 8 bytes and uses the native byte order of the platform which is faster
+         * to read and write but uses a little more space when keys are not a multiple
+         * of 8 bytes long. Version 3 is as version 2 but stores the keys of a leaf
+         * together followed by the value positions so that searching a leaf reads
+         * fewer bytes.
+         * 
+         * @param formatVersion 1, 2 or 3
+         * @return this
+         */
+        public BuilderFile2 formatVersion(int formatVersion) {
+            Preconditions.checkArgument(
+                    formatVersion >= FactoryFile.FORMAT_VERSION_1 && formatVersion <= FactoryFile.FORMAT_VERSION_3,
+                    "formatVersion must be 1, 2 or 3");
+            this.formatVersion = formatVersion;
+            return this;
+        }
+
         public BuilderFile2 deleteOnClose() {
             return onClose(() -> clearDirectory(directory));
         }
@@ -141,6 +338,22 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Creates a tree with {@code long} keys in natural order that searches and
+         * scans keys as primitives (see {@link LongBPlusTree}). Cannot be combined
+         * with {@link #concurrentReaders()}.
+         * 
+         * @param <V>             value type
+         * @param valueSerializer value serializer
+         * @return a new tree with long keys
+         */
+        public <V> LongBPlusTree<V> longKeys(Serializer<V> valueSerializer) {
+            Preconditions.checkArgument(!concurrentReaders, "longKeys cannot be used with concurrent readers");
+            return new LongBPlusTree<V>(keySerializer(Serializer.LONG) //
+                    .valueSerializer(valueSerializer) //
+                    .naturalOrder());
+        }
+
         public <K> BuilderFile3<K> keySerializer(Serializer<K> serializer) {
             Preconditions.checkArgument(serializer.maxSize() > 0, "key serializer must have non-zero maxSize");
             return new BuilderFile3<K>(this, serializer);
@@ -167,6 +380,7 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         private final BuilderFile2 b;
         private final Serializer<K> keySerializer;
         private final Serializer<V> valueSerializer;
+        private Iterator<Entry<K, V>> bulkLoadEntries;
 
         BuilderFile4(BuilderFile2 b, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
             this.b = b;
@@ -174,6 +388,19 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             this.valueSerializer = valueSerializer;
         }
 
+        /**
+         * Sets entries to be bulk loaded into the tree when it is created. See
+         * {@link BPlusTree#bulkLoad(Iterator)}.
+         * 
+         * @param entries entries in key order
+         * @return this
+         */
+        public BuilderFile4<K, V> bulkLoad(Iterator<Entry<K, V>> entries) {
+            Preconditions.checkNotNull(entries);
+            this.bulkLoadEntries = entries;
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         public BPlusTree<K, V> naturalOrder() {
             return comparator((Comparator<K>) (Comparator<?>) Comparator.naturalOrder());
@@ -181,9 +408,18 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
         public BPlusTree<K, V> comparator(Comparator<? super K> comparator) {
             FactoryProvider<K, V> factoryProvider = options -> new FactoryFile<K, V>(options, b.directory,
-                    keySerializer, valueSerializer, b.segmentSizeBytes, b.onClose);
-
-            if (b.maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
+                    keySerializer, valueSerializer, b.segmentSizeBytes, b.onClose, b.concurrentReaders,
+                    b.maxMappedSegments, b.prepareNextSegmentFraction, b.preTouch, b.durability,
+                    b.formatVersion);
+
+            if (b.nodeSizeBytes != NODE_SIZE_NOT_SPECIFIED) {
+                Preconditions.checkArgument(
+                        b.maxLeafKeys == MAX_KEYS_NOT_SPECIFIED && b.maxNonLeafKeys == MAX_KEYS_NOT_SPECIFIED,
+                        "nodeSizeBytes cannot be combined with maxKeys");
+                b.maxLeafKeys = FactoryFile.maxLeafKeys(b.nodeSizeBytes, keySerializer.maxSize(), b.formatVersion);
+                b.maxNonLeafKeys = FactoryFile.maxNonLeafKeys(b.nodeSizeBytes, keySerializer.maxSize(),
+                        b.formatVersion);
+            } else if (b.maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
                 if (b.maxNonLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
                     b.maxLeafKeys = DEFAULT_NUM_KEYS;
                     b.maxNonLeafKeys = DEFAULT_NUM_KEYS;
@@ -194,8 +430,12 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                 b.maxNonLeafKeys = b.maxLeafKeys;
             }
 
-            return new BPlusTree<K, V>(b.maxLeafKeys, b.maxNonLeafKeys, b.uniqueKeys, b.onClose, comparator,
-                    factoryProvider);
+            BPlusTree<K, V> tree = new BPlusTree<K, V>(b.maxLeafKeys, b.maxNonLeafKeys, b.uniqueKeys, b.onClose,
+                    comparator, factoryProvider, b.cacheRightmostPath, b.splitPolicy);
+            if (bulkLoadEntries != null) {
+                tree.bulkLoad(bulkLoadEntries);
+            }
+            return tree;
         }
 
     }
@@ -206,6 +446,9 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         private int maxInnerKeys = MAX_KEYS_NOT_SPECIFIED;
 
         private boolean uniqueKeys = false;
+        private boolean cacheRightmostPath = false;
+        private SplitPolicy splitPolicy = SplitPolicy.HALF;
+        private Class<?> keyType;
 
         Builder() {
             // prevent instantiation
@@ -240,8 +483,53 @@ public final class BPlusTree<K, V> implements AutoCloseable {
             return uniqueKeys(true);
         }
 
+        /**
+         * If true then the path from the root to the rightmost leaf is cached and
+         * inserts of keys greater than or equal to the current maximum key go straight
+         * to the rightmost leaf without a descent from the root.
+         * 
+         * @param cacheRightmostPath whether to cache the rightmost path
+         * @return this
+         */
+        public Builder cacheRightmostPath(boolean cacheRightmostPath) {
+            this.cacheRightmostPath = cacheRightmostPath;
+            return this;
+        }
+
+        public Builder cacheRightmostPath() {
+            return cacheRightmostPath(true);
+        }
+
+        /**
+         * Sets the policy that decides where full nodes are split. The default is
+         * {@link SplitPolicy#HALF}.
+         * 
+         * @param splitPolicy split policy
+         * @return this
+         */
+        public Builder splitPolicy(SplitPolicy splitPolicy) {
+            Preconditions.checkNotNull(splitPolicy);
+            this.splitPolicy = splitPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the class of the keys. If {@code Long.class} or {@code Integer.class}
+         * (or the primitive classes) then nodes store keys in primitive arrays and
+         * searches in natural order compare the keys as primitives.
+         * 
+         * @param keyType class of the keys
+         * @return this
+         */
+        public Builder keyType(Class<?> keyType) {
+            Preconditions.checkNotNull(keyType);
+            this.keyType = keyType;
+            return this;
+        }
+
         public <K, V> BPlusTree<K, V> comparator(Comparator<? super K> comparator) {
-            FactoryProvider<K, V> factoryProvider = options -> new FactoryMemory<K, V>(options);
+            Class<?> keyType = this.keyType;
+            FactoryProvider<K, V> factoryProvider = options -> new FactoryMemory<K, V>(options, keyType);
             if (maxLeafKeys == MAX_KEYS_NOT_SPECIFIED) {
                 if (maxInnerKeys == MAX_KEYS_NOT_SPECIFIED) {
                     maxLeafKeys = DEFAULT_NUM_KEYS;
@@ -253,30 +541,280 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                 maxInnerKeys = maxLeafKeys;
             }
 
-            return new BPlusTree<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, null, comparator, factoryProvider);
+            return new BPlusTree<K, V>(maxLeafKeys, maxInnerKeys, uniqueKeys, null, comparator, factoryProvider,
+                    cacheRightmostPath, splitPolicy);
         }
 
     }
 
     public void insert(K key, V value) {
-        Split<K, V> result = root.insert(key, value);
+        if (options.cacheRightmostPath() && append(key, value)) {
+            return;
+        }
+        // the insert may change the rightmost path so invalidate it
+        rightmostLeaf = null;
+        Node<K, V> node = factory.writable(root);
+        Split<K, V> result;
+        if (node instanceof NonLeaf) {
+            result = ((NonLeaf<K, V>) node).insert(key, value, insertPath);
+        } else {
+            result = node.insert(key, value);
+        }
         if (result != null) {
-            // The root is split into two parts.
-            // We create a new root pointing to them
-            NonLeaf<K, V> node = //
-                    factory //
-                            .createNonLeaf();
-            node.setNumKeys(1);
-            node.setKey(0, result.key);
-            node.setChild(0, result.left);
-            node.setChild(1, result.right);
+            splitRoot(result);
+        } else if (node != root) {
+            // publish the copy of the root
             root = node;
             factory.root(root);
-            // commit changing the root node which shouldn't happen very often
-            factory.commit();
         }
     }
 
+    private void splitRoot(Split<K, V> result) {
+        // The root is split into two parts.
+        // We create a new root pointing to them
+        NonLeaf<K, V> node = //
+                factory //
+                        .createNonLeaf();
+        node.setNumKeys(1);
+        node.setKey(0, result.key);
+        node.setChild(0, result.left);
+        node.setChild(1, result.right);
+        root = node;
+        factory.root(root);
+        // commit changing the root node which shouldn't happen very often
+        factory.commit();
+    }
+
+    /**
+     * Inserts the key and value straight into the rightmost leaf if the key is
+     * greater than or equal to the current maximum key. Splits are propagated up
+     * the cached rightmost path only.
+     * 
+     * @param key   key to insert
+     * @param value value to insert
+     * @return true if and only if the key value pair was inserted
+     */
+    private boolean append(K key, V value) {
+        if (rightmostLeaf == null) {
+            loadRightmostPath(0, root);
+        }
+        Leaf<K, V> leaf = rightmostLeaf;
+        int numKeys = leaf.numKeys();
+        if (numKeys > 0 && options.comparator().compare(key, leaf.key(numKeys - 1)) < 0) {
+            return false;
+        }
+        // the descent from the root would arrive at the rightmost leaf because key is
+        // >= every key in the tree
+        Split<K, V> split = leaf.insert(key, value);
+        if (split != null) {
+            int level = rightmostPath.size() - 1;
+            while (split != null && level >= 0) {
+                NonLeaf<K, V> node = rightmostPath.get(level);
+                // the split child is always the last child of node
+                split = node.insert(node.numKeys(), split);
+                level--;
+            }
+            if (split != null) {
+                splitRoot(split);
+                loadRightmostPath(0, root);
+            } else {
+                // nodes below the one that absorbed the split may have been replaced
+                loadRightmostPath(level + 1, rightmostPath.get(level + 1));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the cached rightmost path from {@code level} down with the rightmost
+     * path below {@code node}.
+     * 
+     * @param level level of node (the root is level 0)
+     * @param node  node on the rightmost path
+     */
+    private void loadRightmostPath(int level, Node<K, V> node) {
+        while (rightmostPath.size() > level) {
+            rightmostPath.remove(rightmostPath.size() - 1);
+        }
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> nonLeaf = (NonLeaf<K, V>) node;
+            rightmostPath.add(nonLeaf);
+            node = nonLeaf.child(nonLeaf.numKeys());
+        }
+        rightmostLeaf = (Leaf<K, V>) node;
+    }
+
+    /**
+     * Removes all entries with the given key.
+     * 
+     * @param key key to remove
+     * @return number of entries removed
+     */
+    public int delete(K key) {
+        return delete(key, key, true, null);
+    }
+
+    /**
+     * Removes the entries with the given key whose value is equal to
+     * {@code value}. Other entries with the same key are retained.
+     * 
+     * @param key   key to remove
+     * @param value value of the entries to remove
+     * @return number of entries removed
+     */
+    public int delete(K key, V value) {
+        Preconditions.checkNotNull(value);
+        return delete(key, key, true, value);
+    }
+
+    /**
+     * Removes all entries whose keys are &gt;= start and &lt; finish.
+     * 
+     * @param startInclusive  inclusive start of the range
+     * @param finishExclusive exclusive end of the range
+     * @return number of entries removed
+     */
+    public int deleteRange(K startInclusive, K finishExclusive) {
+        return deleteRange(startInclusive, finishExclusive, false);
+    }
+
+    public int deleteRange(K startInclusive, K finish, boolean isFinishInclusive) {
+        return delete(startInclusive, finish, isFinishInclusive, null);
+    }
+
+    /**
+     * Removes the entries in the key range (whose value equals {@code value} if
+     * non-null). Each pass descends to the first matching entry, removes it and
+     * the matching entries that follow it in the same leaf and then restores the
+     * occupancy of the nodes on the path, borrowing from or merging with siblings.
+     * A pass that finds a non-leaf without keys on the path rebalances that node
+     * instead and the next pass searches again.
+     */
+    private int delete(K start, K finish, boolean isFinishInclusive, V value) {
+        // deletes may change the rightmost path so invalidate it
+        rightmostLeaf = null;
+        int count = 0;
+        while (true) {
+            Path<K, V> path = deletePath;
+            path.truncate(0);
+            Leaf<K, V> leaf = findLeftmostLeaf(root, start, path);
+            int idx = leaf.getLocation(start);
+            // move to the first matching entry
+            while (true) {
+                if (idx == leaf.numKeys()) {
+                    leaf = path.nextLeaf();
+                    if (leaf == null) {
+                        return count;
+                    }
+                    idx = 0;
+                } else if (!inRange(leaf.key(idx), finish, isFinishInclusive)) {
+                    return count;
+                } else if (value == null || value.equals(leaf.value(idx))) {
+                    break;
+                } else {
+                    idx++;
+                }
+            }
+            leaf = writable(path, leaf);
+            Node<K, V> node = path.size() == 0 ? leaf : path.node(0);
+            if (Rebalancer.rebalanceNodeWithoutKeys(path)) {
+                // ensure the leaf has a sibling then search again
+                root = Rebalancer.collapse(node);
+                factory.root(root);
+                continue;
+            }
+            int end = idx + 1;
+            int numKeys = leaf.numKeys();
+            while (end < numKeys && inRange(leaf.key(end), finish, isFinishInclusive)
+                    && (value == null || value.equals(leaf.value(end)))) {
+                end++;
+            }
+            leaf.remove(idx, end - idx);
+            count += end - idx;
+            root = Rebalancer.rebalance(node, path, leaf);
+            factory.root(root);
+        }
+    }
+
+    /**
+     * Returns the leftmost leaf that may contain {@code key} recording the descent
+     * in {@code path}. Unlike a search for an insert this goes left of separators
+     * equal to the key because duplicates of a separator may be in both subtrees.
+     */
+    private Leaf<K, V> findLeftmostLeaf(Node<K, V> node, K key, Path<K, V> path) {
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
+            int idx = inner.getLocation(key);
+            while (idx > 0 && options.comparator().compare(inner.key(idx - 1), key) == 0) {
+                idx--;
+            }
+            path.push(inner, idx);
+            node = inner.child(idx);
+        }
+        return (Leaf<K, V>) node;
+    }
+
+    /**
+     * Makes the nodes on {@code path} and {@code leaf} at its end writable (see
+     * {@link Factory#writable(Node)}) replacing copies in the path and pointing
+     * parents at them. The writable root is the first node of the path or the
+     * returned leaf if the path is empty.
+     * 
+     * @return the writable leaf
+     */
+    private Leaf<K, V> writable(Path<K, V> path, Leaf<K, V> leaf) {
+        int size = path.size();
+        for (int level = 0; level < size; level++) {
+            NonLeaf<K, V> node = path.node(level);
+            NonLeaf<K, V> writable = factory.writable(node);
+            if (writable != node) {
+                path.set(level, writable);
+                if (level > 0) {
+                    path.node(level - 1).setChild(path.childIndex(level - 1), writable);
+                }
+            }
+        }
+        Leaf<K, V> writable = factory.writable(leaf);
+        if (writable != leaf && size > 0) {
+            path.node(size - 1).setChild(path.childIndex(size - 1), writable);
+        }
+        return writable;
+    }
+
+    private boolean inRange(K key, K finish, boolean isFinishInclusive) {
+        int c = options.comparator().compare(key, finish);
+        return c < 0 || (c == 0 && isFinishInclusive);
+    }
+
+    /**
+     * Loads entries supplied in key order into an empty tree. Leaves are written
+     * full and in sequence and then the non-leaf levels are built bottom-up so the
+     * resulting tree is tightly packed. This is much faster than calling
+     * {@link #insert(Object, Object)} for each entry.
+     * 
+     * <p>
+     * Entries with duplicate keys retain the order they were supplied in (unlike
+     * {@link #insert(Object, Object)}). If unique keys are enforced then the last
+     * value supplied for a key is retained.
+     * 
+     * @param entries
+     *            entries in key order
+     * @throws IllegalStateException
+     *             if the tree is not empty
+     * @throws IllegalArgumentException
+     *             if the entries are not in key order
+     */
+    public void bulkLoad(Iterator<Entry<K, V>> entries) {
+        Preconditions.checkNotNull(entries);
+        if (!(root instanceof Leaf) || root.numKeys() > 0) {
+            throw new IllegalStateException("bulk load is only supported on an empty tree");
+        }
+        root = BulkLoader.load(factory.writable((Leaf<K, V>) root), entries);
+        rightmostLeaf = null;
+        factory.root(root);
+        factory.commit();
+    }
+
     /**
      * Looks for the given key. If it is not found, it returns null. If it is found,
      * it returns the associated value.
@@ -286,30 +824,68 @@ public final class BPlusTree<K, V> implements AutoCloseable {
      * @return the first matching value or null if not found
      */
     public V findFirst(K key) {
-        Leaf<K, V> leaf = findFirstLeaf(key);
-        int idx = leaf.getLocation(key);
-        if (idx < leaf.numKeys() && leaf.key(idx).equals(key)) {
-            return leaf.value(idx);
-        } else {
-            return null;
+        long read = factory.beginRead();
+        try {
+            Leaf<K, V> leaf = findFirstLeaf(key);
+            int idx = leaf.getLocation(key);
+            if (idx < leaf.numKeys() && leaf.key(idx).equals(key)) {
+                return leaf.value(idx);
+            } else {
+                return null;
+            }
+        } finally {
+            factory.endRead(read);
         }
     }
 
-    public Iterable<V> find(K key) {
+    public CloseableIterable<V> find(K key) {
 
         return find(key, key, true);
     }
 
     private Leaf<K, V> findFirstLeaf(K key) {
-        Node<K, V> node = root;
+        return findFirstLeaf(root, key, null, factory.cursor());
+    }
+
+    /**
+     * Returns the leaf where {@code key} is or would be. If {@code path} is
+     * non-null the descent is recorded in it otherwise {@code cursor} is used to
+     * move between nodes.
+     */
+    private static <K, V> Leaf<K, V> findFirstLeaf(Node<K, V> node, K key, Path<K, V> path,
+            NodeCursor<K, V> cursor) {
         while (node instanceof NonLeaf) { // need to traverse down to the leaf
             NonLeaf<K, V> inner = (NonLeaf<K, V>) node;
             int idx = inner.getLocation(key);
-            node = inner.child(idx);
+            if (path != null) {
+                path.push(inner, idx);
+                node = inner.child(idx);
+            } else {
+                node = cursor.child(inner, idx);
+            }
         }
         return (Leaf<K, V>) node;
     }
 
+    /**
+     * Returns a new path to record descents in if leaf next pointers cannot be
+     * relied upon (see {@link Factory#leafNextPointersValid()}), otherwise returns
+     * null.
+     * 
+     * @return new path or null
+     */
+    private Path<K, V> newPathIfRequired() {
+        return factory.leafNextPointersValid() ? null : new Path<K, V>();
+    }
+
+    private static <K, V> Leaf<K, V> nextLeaf(Leaf<K, V> leaf, Path<K, V> path, NodeCursor<K, V> cursor) {
+        if (path == null) {
+            return cursor.next(leaf);
+        } else {
+            return path.nextLeaf();
+        }
+    }
+
     /**
      * Returns a key ordered sequence of values whose keys are &gt;= start and &lt;
      * finish. Note that the insert order of duplicate keys may not be preserved.
@@ -321,30 +897,36 @@ public final class BPlusTree<K, V> implements AutoCloseable {
      * @return in-order sequence of values whose keys are &gt;= start and &lt;
      *         finish
      */
-    public Iterable<V> find(K startInclusive, K finishExclusive) {
+    public CloseableIterable<V> find(K startInclusive, K finishExclusive) {
         return find(startInclusive, finishExclusive, false);
     }
 
-    public Iterable<V> find(K startInclusive, K finish, boolean isFinishInclusive) {
+    public CloseableIterable<V> find(K startInclusive, K finish, boolean isFinishInclusive) {
         return find(startInclusive, finish, isFinishInclusive, (k, v) -> v);
     }
 
-    public Iterable<Entry<K, V>> findEntries(K startInclusive, K finishExclusive) {
+    public CloseableIterable<Entry<K, V>> findEntries(K startInclusive, K finishExclusive) {
         return findEntries(startInclusive, finishExclusive, false);
     }
 
-    public Iterable<Entry<K, V>> findEntries(K startInclusive, K finish, boolean isFinishInclusive) {
+    public CloseableIterable<Entry<K, V>> findEntries(K startInclusive, K finish, boolean isFinishInclusive) {
         return find(startInclusive, finish, isFinishInclusive, (k, v) -> Entry.create(k, v));
     }
 
-    public <R> Iterable<R> find(K startInclusive, K finish, boolean isFinishInclusive,
+    public <R> CloseableIterable<R> find(K startInclusive, K finish, boolean isFinishInclusive,
             BiFunction<? super K, ? super V, ? extends R> mapper) {
-        return new Iterable<R>() {
+        return new CloseableIterable<R>() {
 
             @Override
-            public Iterator<R> iterator() {
-                return new Iterator<R>() {
-                    Leaf<K, V> leaf = findFirstLeaf(startInclusive);
+            public CloseableIterator<R> iterator() {
+                return new CloseableIterator<R>() {
+                    // before the root is read, ended when the scan reaches its end
+                    // or is closed
+                    final long read = factory.beginRead();
+                    boolean ended;
+                    final Path<K, V> path = newPathIfRequired();
+                    final NodeCursor<K, V> cursor = factory.cursor();
+                    Leaf<K, V> leaf = findFirstLeaf(root, startInclusive, path, cursor);
                     int numKeys = leaf.numKeys();
                     int idx = leaf.getLocation(startInclusive);
                     R value;
@@ -373,6 +955,7 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                         }
                         while (true) {
                             if (leaf == null) {
+                                end();
                                 return;
                             } else if (idx < numKeys) {
                                 K key = leaf.key(idx);
@@ -383,10 +966,11 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                                 } else {
                                     // don't search further
                                     leaf = null;
+                                    end();
                                 }
                                 return;
                             } else {
-                                leaf = leaf.next();
+                                leaf = nextLeaf(leaf, path, cursor);
                                 if (leaf != null) {
                                     numKeys = leaf.numKeys();
                                 }
@@ -395,6 +979,20 @@ public final class BPlusTree<K, V> implements AutoCloseable {
                         }
                     }
 
+                    @Override
+                    public void close() {
+                        leaf = null;
+                        value = null;
+                        end();
+                    }
+
+                    private void end() {
+                        if (!ended) {
+                            ended = true;
+                            factory.endRead(read);
+                        }
+                    }
+
                 };
             }
 
@@ -586,31 +1184,47 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
     @VisibleForTesting
     Leaf<K, V> firstLeaf(Node<K, V> node) {
-        if (node instanceof Leaf) {
-            return (Leaf<K, V>) node;
-        } else {
+        return firstLeaf(node, null, NodeCursor.direct());
+    }
+
+    private static <K, V> Leaf<K, V> firstLeaf(Node<K, V> node, Path<K, V> path, NodeCursor<K, V> cursor) {
+        while (node instanceof NonLeaf) {
             NonLeaf<K, V> n = (NonLeaf<K, V>) node;
-            return firstLeaf(n.child(0));
+            if (path != null) {
+                path.push(n, 0);
+                node = n.child(0);
+            } else {
+                node = cursor.child(n, 0);
+            }
         }
+        return (Leaf<K, V>) node;
     }
 
-    public Iterable<V> findAll() {
+    public CloseableIterable<V> findAll() {
         return findAll((k, v) -> v);
     }
 
-    public <R> Iterable<R> findAll(BiFunction<? super K, ? super V, ? extends R> mapper) {
-        return new Iterable<R>() {
+    public <R> CloseableIterable<R> findAll(BiFunction<? super K, ? super V, ? extends R> mapper) {
+        return new CloseableIterable<R>() {
 
             @Override
-            public Iterator<R> iterator() {
-                return new Iterator<R>() {
-
-                    Leaf<K, V> leaf = firstLeaf(root);
+            public CloseableIterator<R> iterator() {
+                return new CloseableIterator<R>() {
+
+                    // before the root is read, ended when the scan reaches its end
+                    // or is closed
+                    final long read = factory.beginRead();
+                    boolean ended;
+                    final Path<K, V> path = newPathIfRequired();
+                    final NodeCursor<K, V> cursor = factory.cursor();
+                    Leaf<K, V> leaf = firstLeaf(root, path, cursor);
                     int index = 0;
 
                     @Override
                     public boolean hasNext() {
-                        return leaf != null && index < leaf.numKeys();
+                        // skips empty leaves
+                        moveBeyondLeafEnd();
+                        return leaf != null;
                     }
 
                     @Override
@@ -628,9 +1242,25 @@ public final class BPlusTree<K, V> implements AutoCloseable {
 
                     private void moveBeyondLeafEnd() {
                         while (leaf != null && index == leaf.numKeys()) {
-                            leaf = leaf.next();
+                            leaf = nextLeaf(leaf, path, cursor);
                             index = 0;
                         }
+                        if (leaf == null) {
+                            end();
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        leaf = null;
+                        end();
+                    }
+
+                    private void end() {
+                        if (!ended) {
+                            ended = true;
+                            factory.endRead(read);
+                        }
                     }
                 };
             }
@@ -708,8 +1338,42 @@ public final class BPlusTree<K, V> implements AutoCloseable {
         factory.close();
     }
 
+    /**
+     * Makes changes so far durable according to the durability mode of the tree
+     * (see {@link BuilderFile2#durability(Durability)}). With
+     * {@link Durability#ON_COMMIT} (the default) this method blocks until the
+     * changes have been forced to disk.
+     */
     public void commit() {
         factory.commit();
     }
 
+    /**
+     * Starts a commit without waiting for it to finish. Commits started while an
+     * earlier commit is being forced to disk are combined into one force. Like all
+     * other methods that change the tree this method must be called by the thread
+     * doing the writing.
+     * 
+     * @return future that completes when changes made before the call are durable
+     */
+    public CompletableFuture<Void> commitAsync() {
+        return factory.commitAsync();
+    }
+
+    /**
+     * Returns how the index of a file-based or off-heap tree is used, including
+     * the nodes freed by deletes that are available for reuse. Must be called by
+     * the thread doing the writing.
+     * 
+     * @return storage statistics of the index
+     * @throws IllegalStateException if the tree is in memory
+     */
+    public StorageStats storageStats() {
+        if (!(factory instanceof FactoryFile)) {
+            throw new IllegalStateException("storage stats are only available for file-based and off-heap trees");
+        }
+        FactoryFile<K, V> f = (FactoryFile<K, V>) factory;
+        return new StorageStats(f.freeLeaves(), f.freeNonLeaves(), f.freeBytes(), f.usedBytes());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.github.davidmoten.bplustree;
+
+/**
+ * The results of a search. Each call to {@link #iterator()} starts a new search
+ * whose iterator should be closed if it is not read to the end, for example:
+ * 
+ * <pre>
+ * try (CloseableIterator&lt;V&gt; it = tree.find(start, finish).iterator()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public interface CloseableIterable<T> extends Iterable<T> {
+
+    @Override
+    CloseableIterator<T> iterator();
+
+}
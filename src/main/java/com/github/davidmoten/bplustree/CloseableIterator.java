@@ -0,0 +1,19 @@
+package com.github.davidmoten.bplustree;
+
+import java.util.Iterator;
+
+/**
+ * An iterator over the results of a search that should be closed if it is not
+ * read to the end. Until then a tree with concurrent readers does not reuse the
+ * nodes that the search may still read.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Ends the search. Does nothing if the iterator has been read to the end or
+     * already closed.
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,59 @@
+package com.github.davidmoten.bplustree;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Decides when changes to a file-based tree are forced to disk.
+ */
+public final class Durability {
+
+    public enum Mode {
+        NONE, ON_COMMIT, PERIODIC;
+    }
+
+    /**
+     * Changes are never explicitly forced to disk. The operating system writes
+     * them back in its own time (and at the latest when the files are unmapped) so
+     * changes may be lost if the machine (but not the process) fails.
+     */
+    public static final Durability NONE = new Durability(Mode.NONE, 0);
+
+    /**
+     * {@link BPlusTree#commit()} forces changes to disk before returning (the
+     * default).
+     */
+    public static final Durability ON_COMMIT = new Durability(Mode.ON_COMMIT, 0);
+
+    private final Mode mode;
+    private final long intervalMs;
+
+    private Durability(Mode mode, long intervalMs) {
+        this.mode = mode;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * {@link BPlusTree#commit()} returns immediately and a background thread
+     * forces the changes of all commits made in the last interval to disk in one
+     * go. Changes committed in the last interval may be lost if the machine fails.
+     * 
+     * @param interval time between forces
+     * @param unit     unit of interval
+     * @return periodic durability
+     */
+    public static Durability periodic(long interval, TimeUnit unit) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        return new Durability(Mode.PERIODIC, unit.toMillis(interval));
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public long intervalMs() {
+        return intervalMs;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.github.davidmoten.bplustree;
+
+/**
+ * A {@link KeyCodec} for keys that map to at most 64 bits with unsigned order
+ * matching key order. The bits are written most significant byte first
+ * whatever the byte order of the buffer.
+ */
+abstract class FixedWidthKeyCodec<K> implements KeyCodec<K> {
+
+    private final int size;
+
+    FixedWidthKeyCodec(int size) {
+        this.size = size;
+    }
+
+    abstract long toBits(K key);
+
+    abstract K fromBits(long bits);
+
+    @Override
+    public K read(LargeByteBuffer bb) {
+        long bits = 0;
+        for (int i = 0; i < size; i++) {
+            bits = (bits << 8) | (bb.get() & 0xFF);
+        }
+        return fromBits(bits);
+    }
+
+    @Override
+    public void write(LargeByteBuffer bb, K key) {
+        long bits = toBits(key);
+        for (int i = size - 1; i >= 0; i--) {
+            bb.put((byte) (bits >>> (i * 8)));
+        }
+    }
+
+    @Override
+    public void encode(K key, byte[] bytes) {
+        long bits = toBits(key);
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (bits >>> ((size - 1 - i) * 8));
+        }
+    }
+
+    @Override
+    public int maxSize() {
+        return size;
+    }
+
+}
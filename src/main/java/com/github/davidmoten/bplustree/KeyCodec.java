@@ -0,0 +1,143 @@
+package com.github.davidmoten.bplustree;
+
+import java.nio.charset.StandardCharsets;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * A key serializer whose serialized form is byte-comparable: comparing the
+ * serialized bytes of two keys as unsigned bytes (first byte most significant)
+ * orders them the same way as the comparator of the tree. Every key is written
+ * as exactly {@link #maxSize()} bytes.
+ * 
+ * <p>
+ * When the key serializer of a file tree is a {@code KeyCodec} searches compare
+ * the search key with the mapped bytes of node keys directly instead of reading
+ * (and allocating) each key that is probed.
+ * 
+ * <p>
+ * The codecs here order keys as their natural order does (for strings only when
+ * they contain no characters outside the Basic Multilingual Plane) so use them
+ * with {@link BPlusTree.BuilderFile4#naturalOrder()}.
+ */
+public interface KeyCodec<K> extends Serializer<K> {
+
+    /**
+     * Writes the serialized form of {@code key} to the first {@link #maxSize()}
+     * bytes of {@code bytes}. The same bytes are written by
+     * {@link #write(LargeByteBuffer, Object)}.
+     * 
+     * @param key   key to encode
+     * @param bytes destination of at least {@link #maxSize()} bytes
+     */
+    void encode(K key, byte[] bytes);
+
+    public static KeyCodec<Long> LONG = new FixedWidthKeyCodec<Long>(Long.BYTES) {
+
+        @Override
+        long toBits(Long t) {
+            // flip the sign bit so that negative numbers sort first
+            return t ^ Long.MIN_VALUE;
+        }
+
+        @Override
+        Long fromBits(long bits) {
+            return bits ^ Long.MIN_VALUE;
+        }
+    };
+
+    public static KeyCodec<Integer> INTEGER = new FixedWidthKeyCodec<Integer>(Integer.BYTES) {
+
+        @Override
+        long toBits(Integer t) {
+            return (t ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        Integer fromBits(long bits) {
+            return (int) bits ^ Integer.MIN_VALUE;
+        }
+    };
+
+    public static KeyCodec<Short> SHORT = new FixedWidthKeyCodec<Short>(Short.BYTES) {
+
+        @Override
+        long toBits(Short t) {
+            return (t ^ Short.MIN_VALUE) & 0xFFFFL;
+        }
+
+        @Override
+        Short fromBits(long bits) {
+            return (short) (bits ^ Short.MIN_VALUE);
+        }
+    };
+
+    /**
+     * Orders as {@link Double#compare(double, double)} does (-0.0 before 0.0 and
+     * NaN last).
+     */
+    public static KeyCodec<Double> DOUBLE = new FixedWidthKeyCodec<Double>(Double.BYTES) {
+
+        @Override
+        long toBits(Double t) {
+            long bits = Double.doubleToLongBits(t);
+            // negative numbers have all bits flipped so that larger magnitudes sort
+            // first, positive numbers just have the sign bit flipped
+            return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        }
+
+        @Override
+        Double fromBits(long bits) {
+            return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+        }
+    };
+
+    /**
+     * Returns a codec for strings that are at most {@code length} bytes when
+     * encoded in UTF-8. Strings are padded with zero bytes to {@code length} bytes
+     * so must not contain the NUL character (code point 0).
+     * 
+     * @param length size in bytes of every encoded key
+     * @return codec for strings of at most {@code length} UTF-8 bytes
+     */
+    public static KeyCodec<String> utf8(int length) {
+        Preconditions.checkArgument(length > 0, "length must be positive");
+        return new KeyCodec<String>() {
+
+            @Override
+            public String read(LargeByteBuffer bb) {
+                byte[] bytes = new byte[length];
+                bb.get(bytes);
+                int n = length;
+                while (n > 0 && bytes[n - 1] == 0) {
+                    n--;
+                }
+                return new String(bytes, 0, n, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void write(LargeByteBuffer bb, String s) {
+                byte[] bytes = new byte[length];
+                encode(s, bytes);
+                bb.put(bytes);
+            }
+
+            @Override
+            public void encode(String s, byte[] bytes) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                Preconditions.checkArgument(b.length <= length,
+                        "string is longer than " + length + " bytes in UTF-8: " + s);
+                System.arraycopy(b, 0, bytes, 0, b.length);
+                for (int i = b.length; i < length; i++) {
+                    bytes[i] = 0;
+                }
+            }
+
+            @Override
+            public int maxSize() {
+                return length;
+            }
+        };
+    }
+
+}
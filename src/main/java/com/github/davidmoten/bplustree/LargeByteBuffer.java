@@ -5,8 +5,13 @@ import java.nio.charset.StandardCharsets;
 
 /**
  * Similar to {@link ByteBuffer} but supports {@code long} positions instead of
- * {@code int} positions. Does not include those methods in ByteBuffer that
- * include the position as a parameter (for simplicity).
+ * {@code int} positions.
+ * 
+ * <p>
+ * The absolute methods (those with a position parameter) neither use nor change
+ * the position of the buffer so may be called by several threads at once
+ * without synchronization (writes still need to be safely published before
+ * other threads can rely on reading them).
  * 
  * <p>
  * Also includes the notion of commit which forces flushing of memory buffers to
@@ -47,8 +52,51 @@ public interface LargeByteBuffer {
 
     void putFloat(float value);
 
+    byte get(long position);
+
+    void put(long position, byte b);
+
+    void get(long position, byte[] dst);
+
+    void put(long position, byte[] src);
+
+    short getShort(long position);
+
+    void putShort(long position, short value);
+
+    int getInt(long position);
+
+    void putInt(long position, int value);
+
+    long getLong(long position);
+
+    void putLong(long position, long value);
+
+    /**
+     * Copies {@code length} bytes from {@code srcPosition} to {@code dstPosition}
+     * within this buffer. The source and destination ranges may overlap (the
+     * result is as if the bytes were first copied to a temporary array). Does not
+     * change the position of the buffer.
+     * 
+     * @param srcPosition position of the first byte to copy
+     * @param dstPosition position the first byte is copied to
+     * @param length      number of bytes to copy
+     */
+    void copy(long srcPosition, long dstPosition, int length);
+
     void commit();
 
+    /**
+     * Returns a new buffer that shares the content of this buffer but has its own
+     * position (and any other mutable state) starting at zero. Several threads can
+     * each read through their own duplicate in parallel without synchronization
+     * (writes made through one duplicate must be safely published before another
+     * thread can rely on reading them).
+     * 
+     * @return a new buffer sharing the content of this buffer
+     */
+    LargeByteBuffer duplicate();
+
     default String getString() {
         int length = getVarint();
         byte[] bytes = new byte[length];
@@ -0,0 +1,184 @@
+package com.github.davidmoten.bplustree;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.davidmoten.bplustree.internal.file.FactoryFile;
+import com.github.davidmoten.bplustree.internal.file.NodeFile;
+
+/**
+ * A file based B+ tree with {@code long} keys in natural order. Keys are stored
+ * as by {@link Serializer#LONG} and are searched and scanned as primitives
+ * without boxing or a {@code Comparator}. Searches have the same semantics as
+ * the corresponding methods of {@link BPlusTree}.
+ * 
+ * <p>
+ * Create one with {@link BPlusTree.BuilderFile2#longKeys(Serializer)}.
+ *
+ * @param <V> value type
+ */
+public final class LongBPlusTree<V> implements AutoCloseable {
+
+    private final BPlusTree<Long, V> tree;
+    private final FactoryFile<Long, V> factory;
+
+    LongBPlusTree(BPlusTree<Long, V> tree) {
+        this.tree = tree;
+        this.factory = (FactoryFile<Long, V>) tree.factory();
+    }
+
+    public void insert(long key, V value) {
+        tree.insert(key, value);
+    }
+
+    public int delete(long key) {
+        return tree.delete(key);
+    }
+
+    public int deleteRange(long startInclusive, long finishExclusive) {
+        return tree.deleteRange(startInclusive, finishExclusive);
+    }
+
+    /**
+     * Returns the first value associated with the key or null if not found.
+     * 
+     * @param key key to find
+     * @return the first matching value or null if not found
+     */
+    public V findFirst(long key) {
+        long leaf = findLeafPosition(key);
+        int idx = factory.getLocationLong(leaf, true, key);
+        if (idx < factory.leafNumKeys(leaf) && factory.leafKeyLong(leaf, idx) == key) {
+            return factory.leafValue(leaf, idx);
+        } else {
+            return null;
+        }
+    }
+
+    public CloseableIterable<V> find(long key) {
+        return find(key, key, true);
+    }
+
+    /**
+     * Returns a key ordered sequence of values whose keys are &gt;= start and &lt;
+     * finish.
+     * 
+     * @param startInclusive  inclusive end of search
+     * @param finishExclusive exclusive end of search
+     * @return in-order sequence of values whose keys are &gt;= start and &lt;
+     *         finish
+     */
+    public CloseableIterable<V> find(long startInclusive, long finishExclusive) {
+        return find(startInclusive, finishExclusive, false);
+    }
+
+    public CloseableIterable<V> find(long startInclusive, long finish, boolean isFinishInclusive) {
+        if (!factory.leafNextPointersValid()) {
+            // the tree was written with concurrent readers so scan by descents
+            return tree.find(startInclusive, finish, isFinishInclusive);
+        }
+        return new CloseableIterable<V>() {
+
+            @Override
+            public CloseableIterator<V> iterator() {
+                return new CloseableIterator<V>() {
+                    long leaf = findLeafPosition(startInclusive);
+                    int numKeys = factory.leafNumKeys(leaf);
+                    int idx = factory.getLocationLong(leaf, true, startInclusive);
+                    V value;
+
+                    @Override
+                    public boolean hasNext() {
+                        load();
+                        return value != null;
+                    }
+
+                    @Override
+                    public V next() {
+                        load();
+                        V v = value;
+                        value = null;
+                        if (v == null) {
+                            throw new NoSuchElementException();
+                        } else {
+                            return v;
+                        }
+                    }
+
+                    private void load() {
+                        if (value != null) {
+                            return;
+                        }
+                        while (true) {
+                            if (leaf == FactoryFile.POSITION_NOT_PRESENT) {
+                                return;
+                            } else if (idx < numKeys) {
+                                long key = factory.leafKeyLong(leaf, idx);
+                                if (key < finish || (key == finish && isFinishInclusive)) {
+                                    value = factory.leafValue(leaf, idx);
+                                    idx++;
+                                } else {
+                                    // don't search further
+                                    leaf = FactoryFile.POSITION_NOT_PRESENT;
+                                }
+                                return;
+                            } else {
+                                leaf = factory.leafNextLeafPosition(leaf);
+                                if (leaf != FactoryFile.POSITION_NOT_PRESENT) {
+                                    numKeys = factory.leafNumKeys(leaf);
+                                }
+                                idx = 0;
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        // nodes are not copied (no concurrent readers) so there
+                        // is no search to end
+                        leaf = FactoryFile.POSITION_NOT_PRESENT;
+                        value = null;
+                    }
+                };
+            }
+        };
+    }
+
+    public CloseableIterable<V> findAll() {
+        return tree.findAll();
+    }
+
+    // returns the position of the leaf where key is or would be
+    private long findLeafPosition(long key) {
+        long position = ((NodeFile) tree.root()).position();
+        while (!factory.isLeaf(position)) {
+            int idx = factory.getLocationLong(position, false, key);
+            position = factory.nonLeafChildPosition(position, idx);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the tree with boxed keys that this tree wraps (sharing the same
+     * storage) for operations not offered here.
+     * 
+     * @return the wrapped tree
+     */
+    public BPlusTree<Long, V> tree() {
+        return tree;
+    }
+
+    public void commit() {
+        tree.commit();
+    }
+
+    public CompletableFuture<Void> commitAsync() {
+        return tree.commitAsync();
+    }
+
+    @Override
+    public void close() throws Exception {
+        tree.close();
+    }
+
+}
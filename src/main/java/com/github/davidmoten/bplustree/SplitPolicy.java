@@ -0,0 +1,109 @@
+package com.github.davidmoten.bplustree;
+
+import com.github.davidmoten.guavamini.Preconditions;
+
+/**
+ * Decides where a full node is split when a key is inserted into it.
+ */
+public interface SplitPolicy {
+
+    /**
+     * Returns the number of keys to retain in a full leaf that is being split. The
+     * remaining keys are moved to the new right sibling. The returned value must be
+     * between 1 and {@code maxKeys} inclusive.
+     *
+     * @param insertIndex the position in the full leaf that the new key would be
+     *                    inserted at (between 0 and {@code maxKeys} inclusive)
+     * @param maxKeys     the number of keys in the full leaf
+     * @return the number of keys to retain in the leaf
+     */
+    int leafSplitIndex(int insertIndex, int maxKeys);
+
+    /**
+     * Returns the number of keys to retain in a full non-leaf node that is being
+     * split. The key following the retained keys moves up to the parent and the
+     * remaining keys are moved to the new right sibling. The returned value must be
+     * between 0 and {@code maxKeys - 1} inclusive.
+     *
+     * @param insertIndex the index of the child that the new key would be inserted
+     *                    under (between 0 and {@code maxKeys} inclusive)
+     * @param maxKeys     the number of keys in the full node
+     * @return the number of keys to retain in the node
+     */
+    int nonLeafSplitIndex(int insertIndex, int maxKeys);
+
+    /**
+     * Splits full nodes in half (the default).
+     */
+    public static SplitPolicy HALF = new SplitPolicy() {
+
+        @Override
+        public int leafSplitIndex(int insertIndex, int maxKeys) {
+            return (maxKeys + 1) / 2;
+        }
+
+        @Override
+        public int nonLeafSplitIndex(int insertIndex, int maxKeys) {
+            return maxKeys / 2;
+        }
+    };
+
+    /**
+     * Returns {@code adaptive(0.9)}.
+     *
+     * @return adaptive split policy
+     */
+    public static SplitPolicy adaptive() {
+        return adaptive(0.9);
+    }
+
+    /**
+     * Returns a policy that splits full nodes unevenly when an ascending or
+     * descending run of keys is detected so that nodes end up nearly full. A run is
+     * detected when the insert position is at the end (ascending) or the start
+     * (descending) of the full node. For an ascending run {@code fraction} of the
+     * keys are retained in the split node and for a descending run
+     * {@code fraction} of the keys are moved to the new sibling. Otherwise full
+     * nodes are split in half.
+     *
+     * @param fraction the fraction of keys to leave behind in the node that will
+     *                 not receive subsequent inserts of the run, between 0.5 and 1
+     *                 inclusive
+     * @return adaptive split policy
+     */
+    public static SplitPolicy adaptive(double fraction) {
+        Preconditions.checkArgument(fraction >= 0.5 && fraction <= 1, "fraction must be between 0.5 and 1");
+        return new SplitPolicy() {
+
+            @Override
+            public int leafSplitIndex(int insertIndex, int maxKeys) {
+                int n = (int) Math.round(fraction * maxKeys);
+                if (insertIndex == maxKeys) {
+                    return clamp(n, 1, maxKeys);
+                } else if (insertIndex == 0) {
+                    return clamp(maxKeys - n, 1, maxKeys);
+                } else {
+                    return HALF.leafSplitIndex(insertIndex, maxKeys);
+                }
+            }
+
+            @Override
+            public int nonLeafSplitIndex(int insertIndex, int maxKeys) {
+                int n = (int) Math.round(fraction * maxKeys);
+                int min = Math.min(1, maxKeys - 1);
+                if (insertIndex == maxKeys) {
+                    return clamp(n, min, maxKeys - 1);
+                } else if (insertIndex == 0) {
+                    return clamp(maxKeys - n, min, maxKeys - 1);
+                } else {
+                    return HALF.nonLeafSplitIndex(insertIndex, maxKeys);
+                }
+            }
+
+            private int clamp(int n, int min, int max) {
+                return Math.max(min, Math.min(max, n));
+            }
+        };
+    }
+
+}
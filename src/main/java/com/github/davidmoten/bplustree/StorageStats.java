@@ -0,0 +1,66 @@
+package com.github.davidmoten.bplustree;
+
+/**
+ * How the index of a file-based (or off-heap) tree is used: the nodes freed by
+ * deletes that are available for reuse and the bytes taken by the rest. Values
+ * take no part in these figures.
+ */
+public final class StorageStats {
+
+    private final long freeLeaves;
+    private final long freeNonLeaves;
+    private final long freeBytes;
+    private final long usedBytes;
+
+    StorageStats(long freeLeaves, long freeNonLeaves, long freeBytes, long usedBytes) {
+        this.freeLeaves = freeLeaves;
+        this.freeNonLeaves = freeNonLeaves;
+        this.freeBytes = freeBytes;
+        this.usedBytes = usedBytes;
+    }
+
+    /**
+     * Returns the number of freed leaves available for reuse.
+     * 
+     * @return number of free leaves
+     */
+    public long freeLeaves() {
+        return freeLeaves;
+    }
+
+    /**
+     * Returns the number of freed non-leaf nodes available for reuse.
+     * 
+     * @return number of free non-leaf nodes
+     */
+    public long freeNonLeaves() {
+        return freeNonLeaves;
+    }
+
+    /**
+     * Returns the number of bytes of the index taken by free nodes.
+     * 
+     * @return bytes of free nodes
+     */
+    public long freeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * Returns the number of bytes of the index that are neither the header nor
+     * free nodes. Includes nodes that concurrent readers may still be reading and
+     * bytes skipped so that nodes don't cross page or segment boundaries.
+     * 
+     * @return bytes used
+     */
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageStats [freeLeaves=" + freeLeaves + ", freeNonLeaves=" + freeNonLeaves + ", freeBytes="
+                + freeBytes + ", usedBytes=" + usedBytes + "]";
+    }
+
+}
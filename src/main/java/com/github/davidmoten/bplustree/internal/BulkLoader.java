@@ -0,0 +1,125 @@
+package com.github.davidmoten.bplustree.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.github.davidmoten.bplustree.Entry;
+
+/**
+ * Builds a tree bottom-up from entries supplied in key order. Leaves are filled
+ * to capacity one after the other and as each node fills it is added to the
+ * open node of the level above (creating new levels as required). Every node is
+ * written exactly once so a file based tree is written in a single sequential
+ * pass over the index and value segments.
+ *
+ * <p>
+ * The rightmost node at each level may be partially filled.
+ */
+public final class BulkLoader<K, V> {
+
+    private final Factory<K, V> factory;
+    private final Options<K, V> options;
+
+    // the open (not yet full) NonLeaf at each level, level 0 is the level of the
+    // parents of the leaves
+    private final List<NonLeaf<K, V>> levels = new ArrayList<>();
+
+    // the smallest key in the subtree of the open NonLeaf at each level
+    private final List<K> levelFirstKeys = new ArrayList<>();
+
+    private BulkLoader(Factory<K, V> factory) {
+        this.factory = factory;
+        this.options = factory.options();
+    }
+
+    /**
+     * Loads {@code entries} into the tree that has the empty leaf {@code first} as
+     * its root and returns the new root node.
+     *
+     * @param first   empty leaf that will become the first leaf of the tree
+     * @param entries entries in key order
+     * @param <K>     key type
+     * @param <V>     value type
+     * @return the root node of the loaded tree
+     * @throws IllegalArgumentException if the entries are not in key order
+     */
+    public static <K, V> Node<K, V> load(Leaf<K, V> first, Iterator<Entry<K, V>> entries) {
+        return new BulkLoader<K, V>(first.factory()).load2(first, entries);
+    }
+
+    private Node<K, V> load2(Leaf<K, V> first, Iterator<Entry<K, V>> entries) {
+        Leaf<K, V> leaf = first;
+        int numKeys = 0;
+        K firstKey = null;
+        K lastKey = null;
+        while (entries.hasNext()) {
+            Entry<K, V> entry = entries.next();
+            K key = entry.key();
+            if (numKeys > 0) {
+                int c = options.comparator().compare(lastKey, key);
+                if (c > 0) {
+                    throw new IllegalArgumentException(
+                            "entries must be supplied in key order but " + key + " followed " + lastKey);
+                } else if (c == 0 && options.uniqueKeys()) {
+                    // the previous entry is always in the current leaf because a new leaf is
+                    // only started when an entry arrives for a full leaf
+                    leaf.setValue(numKeys - 1, entry.value());
+                    continue;
+                }
+            }
+            if (numKeys == options.maxLeafKeys()) {
+                Leaf<K, V> next = factory.createLeaf();
+                leaf.setNext(next);
+                addChild(0, leaf, firstKey);
+                leaf = next;
+                numKeys = 0;
+            }
+            if (numKeys == 0) {
+                firstKey = key;
+            }
+            leaf.insert(numKeys, key, entry.value());
+            numKeys++;
+            lastKey = key;
+        }
+        if (levels.isEmpty()) {
+            // everything fitted in one leaf
+            return leaf;
+        }
+        addChild(0, leaf, firstKey);
+        // close the open node at each level by adding it to the level above. Note that
+        // levels may grow during the loop if a level above fills
+        for (int level = 0; level < levels.size() - 1; level++) {
+            addChild(level + 1, levels.get(level), levelFirstKeys.get(level));
+        }
+        return levels.get(levels.size() - 1);
+    }
+
+    private void addChild(int level, Node<K, V> child, K childFirstKey) {
+        if (level == levels.size()) {
+            levels.add(createNonLeaf(child));
+            levelFirstKeys.add(childFirstKey);
+        } else {
+            NonLeaf<K, V> node = levels.get(level);
+            int numKeys = node.numKeys();
+            if (numKeys == options.maxNonLeafKeys()) {
+                // node is full so add it to the level above and start a new node
+                addChild(level + 1, node, levelFirstKeys.get(level));
+                levels.set(level, createNonLeaf(child));
+                levelFirstKeys.set(level, childFirstKey);
+            } else {
+                node.setKey(numKeys, childFirstKey);
+                node.setChild(numKeys + 1, child);
+                node.setNumKeys(numKeys + 1);
+            }
+        }
+    }
+
+    private NonLeaf<K, V> createNonLeaf(Node<K, V> firstChild) {
+        NonLeaf<K, V> node = factory.createNonLeaf();
+        node.setNumKeys(0);
+        node.setChild(0, firstChild);
+        return node;
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.github.davidmoten.bplustree.internal;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface Factory<K, V> extends AutoCloseable {
 
     Leaf<K, V> createLeaf();
@@ -8,6 +10,18 @@ public interface Factory<K, V> extends AutoCloseable {
 
     void commit();
 
+    /**
+     * Starts a commit and returns a future that completes when the changes made
+     * before the call are durable (as far as the durability mode of the factory
+     * ensures).
+     * 
+     * @return future that completes when the commit is done
+     */
+    default CompletableFuture<Void> commitAsync() {
+        commit();
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Called when the root node of the BPlusTree is initialized or changes.
      * 
@@ -16,6 +30,80 @@ public interface Factory<K, V> extends AutoCloseable {
     void root(Node<K, V> node);
 
     Node<K, V> loadOrCreateRoot();
+
+    /**
+     * Returns true if nodes reachable from the last root passed to
+     * {@link #root(Node)} must not be modified in place so that other threads can
+     * read the tree while it is being written. In that case the next pointers of
+     * leaves are not kept up to date.
+     * 
+     * @return true if and only if modified nodes are copied
+     */
+    boolean copyOnWrite();
+
+    /**
+     * Returns true if scans may follow the next pointers of leaves. Not the case
+     * if nodes are copied on write (see {@link #copyOnWrite()}) or were copied on
+     * write when the tree was used before.
+     * 
+     * @return true if and only if leaf next pointers are up to date
+     */
+    default boolean leafNextPointersValid() {
+        return !copyOnWrite();
+    }
+
+    /**
+     * Returns {@code node} if it may be modified in place otherwise returns a
+     * modifiable copy of {@code node} (see {@link #copyOnWrite()}). The caller is
+     * responsible for pointing the parent of {@code node} at the copy.
+     * 
+     * @param <T>  node type
+     * @param node node to be modified
+     * @return node or a copy of it that may be modified
+     */
+    <T extends Node<K, V>> T writable(T node);
+
+    /**
+     * Called when {@code node} has been removed from the tree (for example merged
+     * into a sibling or replaced by a copy) so that its storage can be reused.
+     * The node must not be used after this call.
+     * 
+     * @param node node that is no longer part of the tree
+     */
+    default void release(Node<K, V> node) {
+        // nothing to reclaim by default
+    }
+
+    /**
+     * Called by a search before it reads the root. Until {@link #endRead(long)} is
+     * called with the returned value, nodes released while the search runs (see
+     * {@link #release(Node)}) are not reused so the search can read them safely
+     * from another thread than the writer.
+     * 
+     * @return value to pass to {@link #endRead(long)}
+     */
+    default long beginRead() {
+        return 0;
+    }
+
+    /**
+     * Called when a search that called {@link #beginRead()} has finished.
+     * 
+     * @param read the value returned by {@link #beginRead()}
+     */
+    default void endRead(long read) {
+        // nothing to do by default
+    }
+
+    /**
+     * Returns a cursor for a single lookup or scan that may reuse node objects
+     * as it moves through the tree (see {@link NodeCursor}).
+     * 
+     * @return new cursor
+     */
+    default NodeCursor<K, V> cursor() {
+        return NodeCursor.direct();
+    }
     
     Options<K, V> options();
     
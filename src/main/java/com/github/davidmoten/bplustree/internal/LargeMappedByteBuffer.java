@@ -8,75 +8,510 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import com.github.davidmoten.bplustree.Entry;
 import com.github.davidmoten.bplustree.LargeByteBuffer;
+import com.github.davidmoten.guavamini.Preconditions;
 import com.github.davidmoten.guavamini.annotations.VisibleForTesting;
 
 public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuffer {
 
+    public static final int MAX_MAPPED_SEGMENTS_UNBOUNDED = Integer.MAX_VALUE;
+
+    public static final double PREPARE_NEXT_SEGMENT_DISABLED = 0;
+
+    public static final int PAGE_SIZE_BYTES = 4096;
+
     private final int segmentSizeBytes;
 
-    private final TreeMap<Long, Segment> map = new TreeMap<>();
-    private final List<Entry<Long, Segment>> list = new ArrayList<>();
-    private final File directory;
-    private final String segmentNamePrefix;
+    // mapped segments, shared with duplicates
+    private final Segments segments;
+
+    private final boolean bigEndian;
 
-    private byte[] temp2Bytes = new byte[2];
-    private byte[] temp4Bytes = new byte[4];
-    private byte[] temp8Bytes = new byte[8];
+    // used by the relative methods
+    private long position;
+
+    // the segment most recently used by this buffer. Not shared with duplicates so
+    // that threads reading through their own duplicates don't write to shared
+    // fields
+    private Segment last;
 
     public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix) {
-        this.directory = directory;
-        this.segmentSizeBytes = segmentSizeBytes;
-        this.segmentNamePrefix = segmentNamePrefix;
+        this(directory, segmentSizeBytes, segmentNamePrefix, MAX_MAPPED_SEGMENTS_UNBOUNDED);
     }
 
-    private long position;
+    /**
+     * Constructor.
+     * 
+     * @param directory          directory to store segment files in
+     * @param segmentSizeBytes   size of each segment file
+     * @param segmentNamePrefix  prefix of segment file names
+     * @param maxMappedSegments  maximum number of segments that are mapped at any
+     *                           one time. When a segment is required and the
+     *                           maximum has been reached a segment not used
+     *                           recently (approximately the least recently
+     *                           used) is unmapped (and its file closed). A
+     *                           buffer with a maximum must only be used by one
+     *                           thread at a time (including its duplicates)
+     *                           because a segment may be unmapped while another
+     *                           thread is reading it.
+     */
+    public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix,
+            int maxMappedSegments) {
+        this(directory, segmentSizeBytes, segmentNamePrefix, maxMappedSegments, PREPARE_NEXT_SEGMENT_DISABLED,
+                false, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param directory                  directory to store segment files in or
+     *                                   null to keep segments in direct (off-heap)
+     *                                   buffers that are never written to disk
+     *                                   (see {@link #offHeap(int, ByteOrder)})
+     * @param segmentSizeBytes           size of each segment file
+     * @param segmentNamePrefix          prefix of segment file names
+     * @param maxMappedSegments          see
+     *                                   {@link #LargeMappedByteBuffer(File, int, String, int)}
+     * @param prepareNextSegmentFraction if greater than zero then when
+     *                                   {@link #prepare(long)} is called with a
+     *                                   position that is at least this fraction of
+     *                                   the way through its segment the following
+     *                                   segment is created and mapped on a
+     *                                   background thread
+     * @param preTouch                   if true then a prepared segment also has
+     *                                   each of its pages touched so that later
+     *                                   writes do not page-fault into a sparse file
+     * @param order                      byte order of multi-byte values
+     */
+    public LargeMappedByteBuffer(File directory, int segmentSizeBytes, String segmentNamePrefix,
+            int maxMappedSegments, double prepareNextSegmentFraction, boolean preTouch, ByteOrder order) {
+        this(new Segments(directory, segmentSizeBytes, segmentNamePrefix, maxMappedSegments,
+                prepareNextSegmentFraction, preTouch, order));
+    }
+
+    /**
+     * Returns a buffer whose segments are direct (off-heap) buffers rather than
+     * mapped files. Nothing is written to disk, {@link #commit()} does nothing and
+     * the memory is released on {@link #close()}.
+     * 
+     * @param segmentSizeBytes size of each segment
+     * @param order            byte order of multi-byte values
+     * @return a new off-heap buffer
+     */
+    public static LargeMappedByteBuffer offHeap(int segmentSizeBytes, ByteOrder order) {
+        return new LargeMappedByteBuffer(null, segmentSizeBytes, null, MAX_MAPPED_SEGMENTS_UNBOUNDED,
+                PREPARE_NEXT_SEGMENT_DISABLED, false, order);
+    }
+
+    private LargeMappedByteBuffer(Segments segments) {
+        this.segments = segments;
+        this.segmentSizeBytes = segments.segmentSizeBytes;
+        this.bigEndian = segments.order == ByteOrder.BIG_ENDIAN;
+    }
+
+    /**
+     * Returns a new buffer that shares the mapped segments of this buffer but has
+     * its own position. The returned buffer must not be used after this buffer has
+     * been closed.
+     * 
+     * @return a new buffer sharing the mapped segments of this buffer
+     */
+    @Override
+    public LargeMappedByteBuffer duplicate() {
+        return new LargeMappedByteBuffer(segments);
+    }
+
+    /**
+     * Returns the mapped buffer of the segment containing the given position. Only
+     * absolute methods are called on the returned buffer (its position is never
+     * used) so that it can be shared by threads.
+     * 
+     * @param position position in this buffer
+     * @return the mapped buffer of the segment containing position
+     */
+    private ByteBuffer segment(long position) {
+        return segmentAt(position).bb;
+    }
 
-    private MappedByteBuffer bb(long position) {
-        // TODO close segments when map gets too many entries
+    private Segment segmentAt(long position) {
+        int num = (int) segmentNumber(position);
+        Segment segment = last;
+        if (segment != null && segment.num == num && !segment.unmapped) {
+            return segment;
+        }
+        if (segment != null) {
+            // used until now
+            segments.used(segment);
+        }
+        segment = segments.get(num);
+        last = segment;
+        return segment;
+    }
 
-        long num = segmentNumber(position);
-        Segment segment = getSegment(num);
-        if (segment == null) {
-            segment = createSegment(num);
+    /**
+     * As {@link #segment(long)} but also records that {@code length} bytes from
+     * {@code position} (all in the one segment) are about to be written so that
+     * they are forced to disk on the next commit.
+     * 
+     * @param position position in this buffer
+     * @param length   number of bytes to be written
+     * @return the mapped buffer of the segment containing position
+     */
+    private ByteBuffer segmentForWrite(long position, int length) {
+        Segment segment = segmentAt(position);
+        if (segment.channel != null) {
+            segments.markDirty(segment, offset(position), length);
         }
-        segment.bb.position((int) (position % segmentSizeBytes));
         return segment.bb;
     }
 
-    private Segment getSegment(long num) {
-        for (int i = 0; i < list.size(); i++) {
-            Entry<Long, Segment> entry = list.get(i);
-            if (entry.key() == num) {
-                return entry.value();
+    /**
+     * Notifies this buffer that positions up to the given position are about to be
+     * written (typically the end of the region just allocated in the buffer). If
+     * preparation of the next segment is enabled and the position is far enough
+     * through its segment then the following segment is created and mapped on a
+     * background thread so that writing to it later does not block on file
+     * creation. Does nothing otherwise.
+     * 
+     * @param position position about to be written
+     */
+    public void prepare(long position) {
+        if (segments.prepareThresholdBytes > 0 && offset(position) >= segments.prepareThresholdBytes) {
+            segments.prepare((int) segmentNumber(position) + 1);
+        }
+    }
+
+    private static final class Segments {
+
+        final int segmentSizeBytes;
+        private final File directory;
+        private final String segmentNamePrefix;
+        private final int maxMappedSegments;
+        private final int prepareThresholdBytes;
+        private final boolean preTouch;
+        final ByteOrder order;
+
+        // created lazily when the first segment is prepared
+        private ExecutorService executor;
+
+        // the highest segment number prepared so far, only accessed by the writing
+        // thread
+        private int prepared = -1;
+
+        // the segment number the background thread is creating outside the lock or
+        // -1, only accessed while synchronized
+        private int preparing = -1;
+
+        // indexed by segment number, replaced (never modified) when a segment is
+        // mapped or unmapped so that lookups need no synchronization
+        private volatile Segment[] array = new Segment[16];
+
+        // the currently mapped segments, only accessed while synchronized
+        private final List<Segment> mapped = new ArrayList<>();
+
+        // segments written to since the last commit, only accessed by the writing
+        // thread
+        private final List<Segment> dirty = new ArrayList<>();
+
+        // position in mapped of the next segment considered for unmapping (clock
+        // eviction), only accessed while synchronized
+        private int hand;
+
+        private long mapCount;
+        private long unmapCount;
+
+        Segments(File directory, int segmentSizeBytes, String segmentNamePrefix, int maxMappedSegments,
+                double prepareNextSegmentFraction, boolean preTouch, ByteOrder order) {
+            Preconditions.checkArgument(maxMappedSegments > 0, "maxMappedSegments must be positive");
+            // an off-heap segment cannot be unmapped without losing its content
+            Preconditions.checkArgument(directory != null || maxMappedSegments == MAX_MAPPED_SEGMENTS_UNBOUNDED,
+                    "off-heap buffers cannot have a maximum number of mapped segments");
+            Preconditions.checkArgument(prepareNextSegmentFraction >= 0 && prepareNextSegmentFraction <= 1,
+                    "prepareNextSegmentFraction must be between 0 and 1");
+            this.directory = directory;
+            this.segmentSizeBytes = segmentSizeBytes;
+            this.segmentNamePrefix = segmentNamePrefix;
+            this.maxMappedSegments = maxMappedSegments;
+            if (prepareNextSegmentFraction == PREPARE_NEXT_SEGMENT_DISABLED) {
+                this.prepareThresholdBytes = 0;
+            } else {
+                this.prepareThresholdBytes = Math.max(1, (int) (prepareNextSegmentFraction * segmentSizeBytes));
+            }
+            this.preTouch = preTouch;
+            this.order = order;
+        }
+
+        void prepare(int num) {
+            if (num <= prepared) {
+                return;
+            }
+            prepared = num;
+            Segment[] a = array;
+            if (num < a.length && a[num] != null) {
+                return;
+            }
+            synchronized (this) {
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(r -> {
+                        Thread t = new Thread(r, "bplustree-prepare-" + segmentNamePrefix);
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+                executor.execute(() -> {
+                    try {
+                        createInBackground(num);
+                    } catch (RuntimeException e) {
+                        // the writing thread will retry and report the failure if it
+                        // happens again when it needs the segment
+                    }
+                });
+            }
+        }
+
+
+        Segment get(int num) {
+            Segment[] a = array;
+            Segment segment = num < a.length ? a[num] : null;
+            if (segment == null) {
+                segment = create(num);
+            }
+            used(segment);
+            return segment;
+        }
+
+        // sets the access bit of the segment for eviction. Only needed (and only
+        // written) if there is a maximum number of mapped segments in which case a
+        // single thread uses the buffers
+        void used(Segment segment) {
+            if (maxMappedSegments != MAX_MAPPED_SEGMENTS_UNBOUNDED && !segment.referenced) {
+                segment.referenced = true;
+            }
+        }
+
+        // chooses a segment to unmap and removes it from mapped. Approximates least
+        // recently used with a clock: a segment used since the hand last passed it
+        // gets a second chance
+        private Segment evict() {
+            while (true) {
+                if (hand >= mapped.size()) {
+                    hand = 0;
+                }
+                Segment segment = mapped.get(hand);
+                if (segment.referenced) {
+                    segment.referenced = false;
+                    hand++;
+                } else {
+                    mapped.remove(hand);
+                    return segment;
+                }
+            }
+        }
+
+        synchronized Segment create(int num) {
+            // wait for the background thread if it is creating this segment
+            boolean interrupted = false;
+            while (preparing == num) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Segment[] a = array;
+            // another buffer sharing these segments (or the background thread) may have
+            // just created it
+            if (num < a.length && a[num] != null) {
+                return a[num];
+            }
+            if (mapped.size() >= maxMappedSegments) {
+                Segment lru = evict();
+                dirty.remove(lru);
+                // later commits (including pending flushes) won't see this segment so
+                // force it now
+                lru.forceAll();
+                Segment[] b = Arrays.copyOf(a, a.length);
+                b[lru.num] = null;
+                array = b;
+                // buffers that last used this segment will look it up again
+                lru.unmapped = true;
+                try {
+                    lru.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                unmapCount++;
+            }
+            Segment segment = newSegment(num);
+            publish(segment);
+            return segment;
+        }
+
+        /**
+         * Creates segment {@code num} on the background thread. The segment is
+         * mapped (and pre-touched) without holding the lock so that threads needing
+         * other segments are not held up, only a thread that needs this segment
+         * waits for it.
+         * 
+         * @param num segment number
+         */
+        private void createInBackground(int num) {
+            synchronized (this) {
+                Segment[] a = array;
+                if ((num < a.length && a[num] != null) || mapped.size() >= maxMappedSegments) {
+                    // never unmap from the background thread because the writing thread
+                    // may be using the segment
+                    return;
+                }
+                preparing = num;
+            }
+            Segment segment = null;
+            try {
+                segment = newSegment(num);
+                if (preTouch) {
+                    // fault in every page before the segment is published. Rewrites the
+                    // existing content so is safe for a segment that was already on
+                    // disk (nobody else maps it while preparing is set)
+                    ByteBuffer bb = segment.bb;
+                    for (int i = 0; i < segmentSizeBytes; i += PAGE_SIZE_BYTES) {
+                        bb.put(i, bb.get(i));
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    preparing = -1;
+                    if (segment != null) {
+                        if (mapped.size() < maxMappedSegments) {
+                            publish(segment);
+                        } else {
+                            // other segments were mapped in the meantime
+                            try {
+                                segment.close();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        // maps (or allocates) a segment without making it visible
+        private Segment newSegment(int num) {
+            if (directory == null) {
+                return new Segment(num, null, ByteBuffer.allocateDirect(segmentSizeBytes).order(order));
+            } else {
+                return map(num, new File(directory, segmentNamePrefix + num), segmentSizeBytes, order);
+            }
+        }
+
+        // makes a new segment visible to lookups, must hold the lock
+        private void publish(Segment segment) {
+            Segment[] a = array;
+            Segment[] b = Arrays.copyOf(a, Math.max(a.length, Integer.highestOneBit(segment.num) * 2));
+            b[segment.num] = segment;
+            mapCount++;
+            mapped.add(segment);
+            array = b;
+        }
+
+        void markDirty(Segment segment, int offset, int length) {
+            BitSet pages = segment.dirtyPages;
+            if (pages.isEmpty()) {
+                dirty.add(segment);
+            }
+            int from = offset / PAGE_SIZE_BYTES;
+            int to = (offset + length - 1) / PAGE_SIZE_BYTES;
+            if (from == to) {
+                pages.set(from);
+            } else {
+                pages.set(from, to + 1);
+            }
+        }
+
+        Flush takeDirtyPages() {
+            Flush flush = new Flush();
+            for (Segment segment : dirty) {
+                flush.pages.put(segment, (BitSet) segment.dirtyPages.clone());
+                segment.dirtyPages.clear();
+            }
+            dirty.clear();
+            return flush;
+        }
+
+        void close() throws IOException {
+            ExecutorService ex;
+            synchronized (this) {
+                ex = executor;
+                executor = null;
+            }
+            if (ex != null) {
+                ex.shutdown();
+                try {
+                    ex.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            closeSegments();
+        }
+
+        private synchronized void closeSegments() throws IOException {
+            for (Segment segment : mapped) {
+                segment.unmapped = true;
+                segment.close();
             }
+            mapped.clear();
+            dirty.clear();
+            array = new Segment[16];
         }
-        return null;
     }
 
-    private void putSegment(long num, Segment segment) {
-        // map.put(num, segment);
-        list.add(Entry.create(num, segment));
+    /**
+     * Returns the number of times a segment has been mapped (including remapping
+     * of segments that were unmapped).
+     * 
+     * @return the number of times a segment has been mapped
+     */
+    public long mapCount() {
+        synchronized (segments) {
+            return segments.mapCount;
+        }
     }
 
-    private Segment createSegment(long num) {
-        File file = new File(directory, segmentNamePrefix + num);
-        Segment segment = map(file, segmentSizeBytes);
-        putSegment(num, segment);
-        return segment;
+    /**
+     * Returns the number of times a segment has been unmapped to keep the number of
+     * mapped segments within the maximum.
+     * 
+     * @return the number of times a segment has been unmapped
+     */
+    public long unmapCount() {
+        synchronized (segments) {
+            return segments.unmapCount;
+        }
     }
 
-    private static Segment map(File file, int segmentSizeBytes) {
+    private static Segment map(int num, File file, int segmentSizeBytes, ByteOrder order) {
         try {
             checkFile(file, segmentSizeBytes);
             try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
@@ -91,7 +526,8 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
 
             // map the whole file
             MappedByteBuffer bb = channel.map(MapMode.READ_WRITE, 0, segmentSizeBytes);
-            return new Segment(channel, bb);
+            bb.order(order);
+            return new Segment(num, channel, bb);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -105,232 +541,451 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
         }
     }
 
+    public int segmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    public ByteOrder order() {
+        return segments.order;
+    }
+
     @Override
     public void position(long newPosition) {
         this.position = newPosition;
     }
 
+    @Override
+    public long position() {
+        return position;
+    }
+
+    //////////////////////////////////////////////////
+    // Relative methods
+    //////////////////////////////////////////////////
+
     @Override
     public byte get() {
-        return bb(position++).get();
+        return get(position++);
     }
 
     @Override
     public void put(byte b) {
-        bb(position++).put(b);
+        put(position++, b);
     }
 
     @Override
     public void get(byte[] dst) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + dst.length)) {
-            bb(p).get(dst);
-        } else {
-            int i = 0;
-            while (true) {
-                long p2 = Math.min(segmentPosition(segmentNumber(p) + 1), position + dst.length);
-                int length = (int) (p2 - p);
-                if (length == 0) {
-                    break;
-                }
-                bb(p).get(dst, i, length);
-                i += length;
-                p = p2;
-            }
-        }
+        get(position, dst);
         position += dst.length;
     }
 
     @Override
     public void put(byte[] src) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + src.length)) {
-            bb(p).put(src);
-        } else {
-            int i = 0;
-            while (true) {
-                long p2 = Math.min(segmentPosition(segmentNumber(p) + 1), position + src.length);
-                int length = (int) (p2 - p);
-                if (length == 0) {
-                    break;
-                }
-                bb(p).put(src, i, length);
-                i += length;
-                p = p2;
-            }
-        }
+        put(position, src);
         position += src.length;
     }
 
     @Override
     public int getInt() {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Integer.BYTES)) {
-            position += Integer.BYTES;
-            return bb(p).getInt();
-        } else {
-            get(temp4Bytes);
-            return toInt(temp4Bytes);
-        }
+        int value = getInt(position);
+        position += Integer.BYTES;
+        return value;
     }
 
     @Override
     public void putInt(int value) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Integer.BYTES)) {
-            bb(p).putInt(value);
-            position += Integer.BYTES;
-        } else {
-            put(toBytes(value));
-        }
+        putInt(position, value);
+        position += Integer.BYTES;
     }
 
     @Override
     public long getLong() {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Long.BYTES)) {
-            position += Long.BYTES;
-            return bb(p).getLong();
-        } else {
-            get(temp8Bytes);
-            return toLong(temp8Bytes);
-        }
+        long value = getLong(position);
+        position += Long.BYTES;
+        return value;
     }
 
     @Override
     public void putLong(long value) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Long.BYTES)) {
-            position += Long.BYTES;
-            bb(p).putLong(value);
-        } else {
-            put(toBytes(value));
-        }
+        putLong(position, value);
+        position += Long.BYTES;
     }
 
     @Override
-    public long position() {
-        return position;
+    public short getShort() {
+        short value = getShort(position);
+        position += Short.BYTES;
+        return value;
     }
 
     @Override
-    public short getShort() {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Short.BYTES)) {
-            position += Short.BYTES;
-            return bb(p).getShort();
-        } else {
-            get(temp2Bytes);
-            return toShort(temp2Bytes);
-        }
+    public void putShort(short value) {
+        putShort(position, value);
+        position += Short.BYTES;
     }
 
     @Override
-    public void putShort(short value) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Short.BYTES)) {
-            bb(p).putShort(value);
-            position += Short.BYTES;
-        } else {
-            put(toBytes(value));
+    public double getDouble() {
+        return Double.longBitsToDouble(getLong());
+    }
+
+    @Override
+    public void putDouble(double value) {
+        putLong(Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public double getFloat() {
+        return Float.intBitsToFloat(getInt());
+    }
+
+    @Override
+    public void putFloat(float value) {
+        putInt(Float.floatToRawIntBits(value));
+    }
+
+    //////////////////////////////////////////////////
+    // Absolute methods
+    //
+    // A value that straddles two segments is read or
+    // written a byte at a time
+    //////////////////////////////////////////////////
+
+    @Override
+    public byte get(long position) {
+        return segment(position).get(offset(position));
+    }
+
+    @Override
+    public void put(long position, byte b) {
+        segmentForWrite(position, 1).put(offset(position), b);
+    }
+
+    @Override
+    public void get(long position, byte[] dst) {
+        int i = 0;
+        while (i < dst.length) {
+            long p = position + i;
+            int length = Math.min(dst.length - i, segmentSizeBytes - offset(p));
+            // duplicate so that the position of the shared buffer is not changed
+            ByteBuffer bb = segment(p).duplicate();
+            bb.position(offset(p));
+            bb.get(dst, i, length);
+            i += length;
         }
     }
 
-    private long segmentNumber(long position) {
-        return position / segmentSizeBytes;
+    @Override
+    public void put(long position, byte[] src) {
+        int i = 0;
+        while (i < src.length) {
+            long p = position + i;
+            int length = Math.min(src.length - i, segmentSizeBytes - offset(p));
+            ByteBuffer bb = segmentForWrite(p, length).duplicate();
+            bb.position(offset(p));
+            bb.put(src, i, length);
+            i += length;
+        }
     }
 
-    private long segmentPosition(long segmentNumber) {
-        return segmentSizeBytes * segmentNumber;
+    @Override
+    public void copy(long srcPosition, long dstPosition, int length) {
+        if (dstPosition > srcPosition) {
+            // copy from the end so that overlapping source bytes are read before they
+            // are overwritten
+            int remaining = length;
+            while (remaining > 0) {
+                long srcEnd = srcPosition + remaining;
+                long dstEnd = dstPosition + remaining;
+                int n = Math.min(remaining, Math.min(offset(srcEnd - 1) + 1, offset(dstEnd - 1) + 1));
+                copyWithinSegments(srcEnd - n, dstEnd - n, n);
+                remaining -= n;
+            }
+        } else if (dstPosition < srcPosition) {
+            int i = 0;
+            while (i < length) {
+                long src = srcPosition + i;
+                long dst = dstPosition + i;
+                int n = Math.min(length - i,
+                        Math.min(segmentSizeBytes - offset(src), segmentSizeBytes - offset(dst)));
+                copyWithinSegments(src, dst, n);
+                i += n;
+            }
+        }
     }
 
-    private static byte[] toBytes(short n) {
-        return ByteBuffer.allocate(Short.BYTES).putShort(n).array();
+    // the source range and the destination range each lie within one segment
+    private void copyWithinSegments(long srcPosition, long dstPosition, int length) {
+        if (segmentNumber(srcPosition) == segmentNumber(dstPosition)) {
+            ByteBuffer dst = segmentForWrite(dstPosition, length).duplicate();
+            ByteBuffer src = dst.duplicate();
+            src.position(offset(srcPosition));
+            src.limit(offset(srcPosition) + length);
+            dst.position(offset(dstPosition));
+            // a bulk put between direct buffers is a memmove so the ranges may overlap
+            dst.put(src);
+        } else {
+            // mapping one segment may unmap the other (maxMappedSegments) so go via an
+            // array, rare because nodes never straddle segments
+            byte[] bytes = new byte[length];
+            get(srcPosition, bytes);
+            put(dstPosition, bytes);
+        }
     }
 
-    private static byte[] toBytes(int n) {
-        return ByteBuffer.allocate(Integer.BYTES).putInt(n).array();
+    @Override
+    public short getShort(long position) {
+        int offset = offset(position);
+        if (offset + Short.BYTES <= segmentSizeBytes) {
+            return segment(position).getShort(offset);
+        } else {
+            return (short) getBytes(position, Short.BYTES);
+        }
     }
 
-    private static byte[] toBytes(long n) {
-        return ByteBuffer.allocate(Long.BYTES).putLong(n).array();
+    @Override
+    public void putShort(long position, short value) {
+        int offset = offset(position);
+        if (offset + Short.BYTES <= segmentSizeBytes) {
+            segmentForWrite(position, Short.BYTES).putShort(offset, value);
+        } else {
+            putBytes(position, value, Short.BYTES);
+        }
     }
 
-    private static byte[] toBytes(double n) {
-        return ByteBuffer.allocate(Double.BYTES).putDouble(n).array();
+    @Override
+    public int getInt(long position) {
+        int offset = offset(position);
+        if (offset + Integer.BYTES <= segmentSizeBytes) {
+            return segment(position).getInt(offset);
+        } else {
+            return (int) getBytes(position, Integer.BYTES);
+        }
     }
 
-    private static byte[] toBytes(float n) {
-        return ByteBuffer.allocate(Float.BYTES).putFloat(n).array();
+    @Override
+    public void putInt(long position, int value) {
+        int offset = offset(position);
+        if (offset + Integer.BYTES <= segmentSizeBytes) {
+            segmentForWrite(position, Integer.BYTES).putInt(offset, value);
+        } else {
+            putBytes(position, value, Integer.BYTES);
+        }
     }
 
-    private short toShort(byte[] bytes) {
-        short ret = 0;
-        for (int i = 0; i < 2; i++) {
-            ret <<= 8;
-            ret |= bytes[i] & 0xFF;
+    @Override
+    public long getLong(long position) {
+        int offset = offset(position);
+        if (offset + Long.BYTES <= segmentSizeBytes) {
+            return segment(position).getLong(offset);
+        } else {
+            return getBytes(position, Long.BYTES);
         }
-        return ret;
     }
 
-    private static int toInt(byte[] bytes) {
-        int ret = 0;
-        for (int i = 0; i < 4; i++) {
-            ret <<= 8;
-            ret |= bytes[i] & 0xFF;
+    @Override
+    public void putLong(long position, long value) {
+        int offset = offset(position);
+        if (offset + Long.BYTES <= segmentSizeBytes) {
+            segmentForWrite(position, Long.BYTES).putLong(offset, value);
+        } else {
+            putBytes(position, value, Long.BYTES);
         }
-        return ret;
     }
 
-    private static long toLong(byte[] b) {
+    private long getBytes(long position, int numBytes) {
         long result = 0;
-        for (int i = 0; i < 8; i++) {
+        for (int i = 0; i < numBytes; i++) {
+            // most significant byte first
+            int index = bigEndian ? i : numBytes - 1 - i;
             result <<= 8;
-            result |= (b[i] & 0xFF);
+            result |= get(position + index) & 0xFF;
         }
         return result;
     }
 
-    private static double toDouble(byte[] b) {
-        return ByteBuffer.wrap(b).getDouble();
+    private void putBytes(long position, long value, int numBytes) {
+        for (int i = 0; i < numBytes; i++) {
+            // least significant byte first
+            int index = bigEndian ? numBytes - 1 - i : i;
+            put(position + index, (byte) value);
+            value >>= 8;
+        }
+    }
+
+    private long segmentNumber(long position) {
+        return position / segmentSizeBytes;
     }
 
-    private static double toFloat(byte[] b) {
-        return ByteBuffer.wrap(b).getFloat();
+    private int offset(long position) {
+        return (int) (position % segmentSizeBytes);
     }
 
+    /**
+     * Forces to disk the pages written since the last commit (only those pages
+     * where the JDK supports forcing a range of a mapped buffer, otherwise the
+     * whole of each segment written to). Must be called by the writing thread.
+     */
     @Override
     public void commit() {
-        for (Segment segment : map.values()) {
-            segment.bb.force();
+        takeDirtyPages().force();
+    }
+
+    /**
+     * Returns the pages written since the last commit (or the last call to this
+     * method) and resets the record of written pages. The returned pages can be
+     * forced to disk later by another thread while writing continues. Must be
+     * called by the writing thread.
+     * 
+     * @return pages written since the last commit
+     */
+    public Flush takeDirtyPages() {
+        return segments.takeDirtyPages();
+    }
+
+    /**
+     * A set of written pages (possibly from several buffers) to be forced to disk.
+     */
+    public static final class Flush {
+
+        private final Map<Segment, BitSet> pages = new IdentityHashMap<>();
+
+        /**
+         * Adds the pages of another flush to this one so that pages in both are
+         * forced once.
+         * 
+         * @param other pages to add
+         * @return this
+         */
+        public Flush add(Flush other) {
+            for (Map.Entry<Segment, BitSet> entry : other.pages.entrySet()) {
+                BitSet p = pages.get(entry.getKey());
+                if (p == null) {
+                    pages.put(entry.getKey(), (BitSet) entry.getValue().clone());
+                } else {
+                    p.or(entry.getValue());
+                }
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return pages.isEmpty();
+        }
+
+        /**
+         * Forces the pages to disk. May be called from any thread.
+         */
+        public void force() {
+            for (Map.Entry<Segment, BitSet> entry : pages.entrySet()) {
+                entry.getKey().force(entry.getValue());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int dirtyPageCount() {
+        int count = 0;
+        for (Segment segment : segments.dirty) {
+            count += segment.dirtyPages.cardinality();
         }
+        return count;
     }
 
     @Override
     public void close() throws IOException {
-        for (Entry<Long, Segment> entry : list) {
-            entry.value().close();
-        }
-        list.clear();
+        segments.close();
     }
 
     private static final class Segment {
-        private final FileChannel channel;
-        final MappedByteBuffer bb;
+        final int num;
+        // null if the segment is off-heap
+        final FileChannel channel;
+        // a MappedByteBuffer unless the segment is off-heap
+        final ByteBuffer bb;
+
+        // access bit for eviction, see Segments.used
+        boolean referenced;
 
-        Segment(FileChannel channel, MappedByteBuffer bb) {
+        // set when unmapped (only possible with a maximum number of mapped segments
+        // unless the buffer is closed) so buffers stop using it
+        boolean unmapped;
+
+        // pages written to since the segment was last forced
+        final BitSet dirtyPages = new BitSet();
+
+        Segment(int num, FileChannel channel, ByteBuffer bb) {
+            this.num = num;
             this.channel = channel;
             this.bb = bb;
         }
 
-        public void close() throws IOException {
+        // true once unmapped, guarded by this
+        private boolean closed;
+
+        synchronized void force(BitSet pages) {
+            if (closed || channel == null) {
+                // forced in full before it was closed or nothing to force
+                return;
+            }
+            MappedByteBuffer bb = (MappedByteBuffer) this.bb;
+            if (FORCE_RANGE == null) {
+                bb.force();
+            } else {
+                int capacity = bb.capacity();
+                int page = pages.nextSetBit(0);
+                while (page >= 0) {
+                    int end = pages.nextClearBit(page);
+                    int index = page * PAGE_SIZE_BYTES;
+                    forceRange(bb, index, Math.min(end * PAGE_SIZE_BYTES, capacity) - index);
+                    page = pages.nextSetBit(end);
+                }
+            }
+        }
+
+        synchronized void forceAll() {
+            if (channel != null) {
+                ((MappedByteBuffer) bb).force();
+            }
+            dirtyPages.clear();
+        }
+
+        public synchronized void close() throws IOException {
+            closed = true;
             // Note that System.gc() seems to do the job as well
             // as closeDirectBuffer but of course may cause overall
             // system pauses which may not be desirable for everyone
             closeDirectBuffer(bb);
-            channel.close();
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+    }
+
+    // MappedByteBuffer.force(int, int) is only available from Java 13
+    private static final Method FORCE_RANGE = forceRangeMethod();
+
+    private static Method forceRangeMethod() {
+        try {
+            return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (NoSuchMethodException | SecurityException e) {
+            return null;
         }
+    }
 
+    private static void forceRange(MappedByteBuffer bb, int index, int length) {
+        try {
+            FORCE_RANGE.invoke(bb, index, length);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private static void closeDirectBuffer(ByteBuffer cb) {
@@ -373,38 +1028,4 @@ public final class LargeMappedByteBuffer implements AutoCloseable, LargeByteBuff
         cb = null;
     }
 
-    @Override
-    public double getDouble() {
-        get(temp8Bytes);
-        return toDouble(temp8Bytes);
-    }
-
-    @Override
-    public void putDouble(double value) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Double.BYTES)) {
-            bb(p).putDouble(value);
-            position += Double.BYTES;
-        } else {
-            put(toBytes(value));
-        }
-    }
-
-    @Override
-    public double getFloat() {
-        get(temp4Bytes);
-        return toFloat(temp4Bytes);
-    }
-
-    @Override
-    public void putFloat(float value) {
-        long p = position;
-        if (segmentNumber(p) == segmentNumber(p + Float.BYTES)) {
-            bb(p).putFloat(value);
-            position += Float.BYTES;
-        } else {
-            put(toBytes(value));
-        }
-    }
-
 }
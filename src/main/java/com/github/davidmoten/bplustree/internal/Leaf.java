@@ -34,6 +34,29 @@ public interface Leaf<K, V> extends Node<K, V> {
      */
     void move(int start, int length, Leaf<K, V> newLeaf);
 
+    /**
+     * Removes {@code length} Key Value pairs starting at index {@code i}, moves
+     * the following pairs down and decreases the number of keys by
+     * {@code length}.
+     * 
+     * @param i      index of the first pair to remove
+     * @param length number of pairs to remove
+     */
+    void remove(int i, int length);
+
+    /**
+     * Inserts {@code length} Key Value pairs of {@code other} starting at index
+     * {@code start} at index {@code i} of this Leaf, moves the following pairs up
+     * and increases the number of keys by {@code length}. {@code other} is not
+     * changed and must be a different Leaf from the same factory.
+     * 
+     * @param i      index in this Leaf to insert at
+     * @param other  Leaf to copy pairs from
+     * @param start  index of the first pair to copy in {@code other}
+     * @param length number of pairs to copy
+     */
+    void insert(int i, Leaf<K, V> other, int start, int length);
+
     void setNext(Leaf<K, V> sibling);
 
     Leaf<K, V> next();
@@ -47,7 +70,7 @@ public interface Leaf<K, V> extends Node<K, V> {
             // The node is full. We must split it
             // the first mid entries will be retained
             // and the rest moved to a new right sibling
-            int mid = (options().maxLeafKeys() + 1) / 2;
+            int mid = options().splitPolicy().leafSplitIndex(i, numKeys);
             int len = numKeys - mid;
             Leaf<K, V> sibling = factory().createLeaf();
             move(mid, len, sibling);
@@ -0,0 +1,54 @@
+package com.github.davidmoten.bplustree.internal;
+
+/**
+ * Moves between nodes for a single read operation (a lookup or a scan). A
+ * factory may return the same node object from successive calls (repositioned)
+ * so a node returned by a cursor is only valid until the next call on that
+ * cursor that returns a node of the same type. Use {@link NonLeaf#child(int)}
+ * and {@link Leaf#next()} to obtain nodes that can be held on to.
+ */
+public interface NodeCursor<K, V> {
+
+    Node<K, V> child(NonLeaf<K, V> node, int index);
+
+    /**
+     * Returns the leaf following {@code leaf} or null if there is none.
+     * 
+     * @param leaf leaf
+     * @return the next leaf or null
+     */
+    Leaf<K, V> next(Leaf<K, V> leaf);
+
+    /**
+     * Returns a cursor that delegates to {@link NonLeaf#child(int)} and
+     * {@link Leaf#next()}, for factories whose nodes are objects already.
+     * 
+     * @param <K> key type
+     * @param <V> value type
+     * @return cursor that uses the node methods
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> NodeCursor<K, V> direct() {
+        return (NodeCursor<K, V>) Direct.INSTANCE;
+    }
+
+    final class Direct implements NodeCursor<Object, Object> {
+
+        static final Direct INSTANCE = new Direct();
+
+        private Direct() {
+            // prevent instantiation
+        }
+
+        @Override
+        public Node<Object, Object> child(NonLeaf<Object, Object> node, int index) {
+            return node.child(index);
+        }
+
+        @Override
+        public Leaf<Object, Object> next(Leaf<Object, Object> leaf) {
+            return leaf.next();
+        }
+    }
+
+}
@@ -30,30 +30,94 @@ public interface NonLeaf<K, V> extends Node<K, V> {
      */
     void insert(int i, K key, Node<K, V> left);
 
+    /**
+     * Removes the key at the given index and the child to the left of that key,
+     * moves the following keys and children down and decrements the number of
+     * keys in the node.
+     * 
+     * @param i index of the key to remove
+     */
+    void remove(int i);
+
     @Override
     default Split<K, V> insert(K key, V value) {
+        return insert(key, value, new Path<K, V>());
+    }
+
+    /**
+     * Inserts the key and value below this node. Descends iteratively to the leaf
+     * recording each non-leaf node and the index of the child followed in
+     * {@code path} (which is cleared first) then propagates any split back up the
+     * path. Nodes on the path are made writable (see
+     * {@link Factory#writable(Node)}) on the way down, this node must be writable
+     * already.
+     * 
+     * @param key   key to insert
+     * @param value value to insert
+     * @param path  path to record the descent in, may be reused between inserts
+     * @return null if this node was not split, otherwise the split of this node
+     */
+    default Split<K, V> insert(K key, V value, Path<K, V> path) {
+        path.truncate(0);
+        Node<K, V> node = this;
+        while (node instanceof NonLeaf) {
+            NonLeaf<K, V> nonLeaf = (NonLeaf<K, V>) node;
+            int index = nonLeaf.getLocation(key);
+            Node<K, V> child = nonLeaf.child(index);
+            Node<K, V> writable = factory().writable(child);
+            if (writable != child) {
+                // child was copied
+                nonLeaf.setChild(index, writable);
+            }
+            path.push(nonLeaf, index);
+            node = writable;
+        }
+        Split<K, V> split = node.insert(key, value);
+        for (int level = path.size() - 1; split != null && level >= 0; level--) {
+            split = path.node(level).insert(path.childIndex(level), split);
+        }
+        return split;
+    }
+
+    /**
+     * Records the split of the child at {@code index} in this node, splitting this
+     * node first if it is full.
+     * 
+     * @param index      index of the child that was split
+     * @param childSplit the result of the child split
+     * @return null if this node was not split, otherwise the split of this node
+     */
+    default Split<K, V> insert(int index, Split<K, V> childSplit) {
         if (numKeys() == options().maxNonLeafKeys()) { // Split
-            int mid = options().maxNonLeafKeys() / 2 + 1;
+            int mid = splitIndex(index);
             int len = options().maxNonLeafKeys() - mid;
             NonLeaf<K, V> sibling = factory().createNonLeaf();
             move(mid, sibling, len);
-
-            // Set up the return variable
             Split<K, V> result = new Split<>(key(mid - 1), this, sibling);
-
-            // Now insert in the appropriate sibling
-            if (options().comparator().compare(key, result.key) < 0) {
-                Util.insertNonfull(this, key, value);
+            // the first mid children stay with this node
+            if (index < mid) {
+                Util.insertSplit(this, index, childSplit);
             } else {
-                Util.insertNonfull(sibling, key, value);
+                Util.insertSplit(sibling, index - mid, childSplit);
             }
             return result;
-        } else {// No split
-            Util.insertNonfull(this, key, value);
+        } else {
+            Util.insertSplit(this, index, childSplit);
             return null;
         }
     }
 
+    /**
+     * Returns the index of the first key to move to the new sibling when this full
+     * node is split. The key before it moves up to the parent.
+     * 
+     * @param insertIndex index of the child that the insert is under
+     * @return index of the first key to move to the new sibling
+     */
+    default int splitIndex(int insertIndex) {
+        return options().splitPolicy().nonLeafSplitIndex(insertIndex, options().maxNonLeafKeys()) + 1;
+    }
+
     /**
      * Returns the position where 'key' should be inserted in a non-leaf node that
      * has the given keys.  The position returned will be the first key K for which
@@ -2,6 +2,7 @@ package com.github.davidmoten.bplustree.internal;
 
 import java.util.Comparator;
 
+import com.github.davidmoten.bplustree.SplitPolicy;
 import com.github.davidmoten.guavamini.Preconditions;
 
 public final class Options<K, V> {
@@ -18,16 +19,29 @@ public final class Options<K, V> {
     private final boolean uniqueKeys;
     private final FactoryProvider<K, V> factoryProvider;
 
+    /**
+     * if true then the rightmost root-to-leaf path is cached so that inserts of keys
+     * greater than or equal to the current maximum key skip the descent from the
+     * root
+     */
+    private final boolean cacheRightmostPath;
+
+    /** decides where full nodes are split */
+    private final SplitPolicy splitPolicy;
+
     public Options(int maxLeafKeys, int maxNonLeafKeys, boolean uniqueKeys, 
-            Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider) {
-        // only one byte used to store num keys so check values
-        Preconditions.checkArgument(0 < maxLeafKeys && maxLeafKeys <= 255);
-        Preconditions.checkArgument(0 < maxNonLeafKeys && maxNonLeafKeys <= 255);
+            Comparator<? super K> comparator, FactoryProvider<K, V> factoryProvider,
+            boolean cacheRightmostPath, SplitPolicy splitPolicy) {
+        // factories check any upper limit of their storage format
+        Preconditions.checkArgument(0 < maxLeafKeys);
+        Preconditions.checkArgument(0 < maxNonLeafKeys);
         this.maxLeafKeys = maxLeafKeys;
         this.maxNonLeafKeys = maxNonLeafKeys;
         this.comparator = comparator;
         this.uniqueKeys = uniqueKeys;
         this.factoryProvider = factoryProvider;
+        this.cacheRightmostPath = cacheRightmostPath;
+        this.splitPolicy = splitPolicy;
     }
 
     public int maxLeafKeys() {
@@ -50,4 +64,12 @@ public final class Options<K, V> {
         return factoryProvider;
     }
 
+    public boolean cacheRightmostPath() {
+        return cacheRightmostPath;
+    }
+
+    public SplitPolicy splitPolicy() {
+        return splitPolicy;
+    }
+
 }
\ No newline at end of file
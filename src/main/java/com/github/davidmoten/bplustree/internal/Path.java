@@ -0,0 +1,88 @@
+package com.github.davidmoten.bplustree.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The non-leaf nodes on the path from the root to a leaf together with the
+ * index of the child followed at each node (root first). Used to move between
+ * leaves without following leaf next pointers.
+ */
+public final class Path<K, V> {
+
+    private final List<NonLeaf<K, V>> nodes = new ArrayList<>();
+    private int[] indexes = new int[8];
+
+    public void push(NonLeaf<K, V> node, int childIndex) {
+        int size = nodes.size();
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, size * 2);
+        }
+        nodes.add(node);
+        indexes[size] = childIndex;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public NonLeaf<K, V> node(int level) {
+        return nodes.get(level);
+    }
+
+    /**
+     * Replaces the node at {@code level} (for example with a writable copy).
+     *
+     * @param level level of the node (the root is level 0)
+     * @param node  replacement node
+     */
+    public void set(int level, NonLeaf<K, V> node) {
+        nodes.set(level, node);
+    }
+
+    public int childIndex(int level) {
+        return indexes[level];
+    }
+
+    /**
+     * Removes the entries from {@code size} down so that {@code size} entries
+     * remain.
+     *
+     * @param size number of entries to retain
+     */
+    public void truncate(int size) {
+        while (nodes.size() > size) {
+            nodes.remove(nodes.size() - 1);
+        }
+    }
+
+    /**
+     * Moves this path to the leaf following the leaf it currently ends at and
+     * returns that leaf. Returns null if there is no following leaf.
+     *
+     * @return the next leaf or null if none
+     */
+    public Leaf<K, V> nextLeaf() {
+        while (!nodes.isEmpty()) {
+            int level = nodes.size() - 1;
+            NonLeaf<K, V> node = nodes.get(level);
+            int index = indexes[level];
+            if (index < node.numKeys()) {
+                indexes[level] = index + 1;
+                Node<K, V> child = node.child(index + 1);
+                // descend to the leftmost leaf of the child
+                while (child instanceof NonLeaf) {
+                    NonLeaf<K, V> nonLeaf = (NonLeaf<K, V>) child;
+                    push(nonLeaf, 0);
+                    child = nonLeaf.child(0);
+                }
+                return (Leaf<K, V>) child;
+            } else {
+                nodes.remove(level);
+            }
+        }
+        return null;
+    }
+
+}
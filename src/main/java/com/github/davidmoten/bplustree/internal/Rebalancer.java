@@ -0,0 +1,216 @@
+package com.github.davidmoten.bplustree.internal;
+
+/**
+ * Restores the minimum occupancy of nodes after Key Value pairs have been
+ * removed from a leaf. An underfull node borrows from or merges with a sibling
+ * and a merge may leave the parent underfull in turn, so the path from the root
+ * is walked back up. A leaf is underfull if it has fewer than half the maximum
+ * number of keys (and at least one) and a non-leaf if it has fewer keys than
+ * the smaller half of a split non-leaf.
+ */
+public final class Rebalancer {
+
+    private Rebalancer() {
+        // prevent instantiation
+    }
+
+    /**
+     * Rebalances the nodes on the path to {@code leaf} after pairs have been
+     * removed from it. The nodes on the path and the leaf must be writable (see
+     * {@link Factory#writable(Node)}). Siblings are made writable as they are
+     * changed.
+     *
+     * @param <K>  key type
+     * @param <V>  value type
+     * @param root root of the tree (the first node of {@code path} or
+     *             {@code leaf} if the path is empty)
+     * @param path the non-leaf nodes from the root to {@code leaf}
+     * @param leaf leaf that pairs were removed from
+     * @return the root of the tree, a different node from {@code root} if the
+     *         root was left with a single child
+     */
+    public static <K, V> Node<K, V> rebalance(Node<K, V> root, Path<K, V> path, Leaf<K, V> leaf) {
+        int last = path.size() - 1;
+        if (last < 0 || leaf.numKeys() >= minLeafKeys(leaf.options())) {
+            return root;
+        }
+        rebalanceLeaf(leaf, path.node(last), path.childIndex(last));
+        int minNonLeafKeys = minNonLeafKeys(leaf.options());
+        for (int level = last; level > 0; level--) {
+            NonLeaf<K, V> node = path.node(level);
+            if (node.numKeys() >= minNonLeafKeys) {
+                break;
+            }
+            rebalanceNonLeaf(node, path.node(level - 1), path.childIndex(level - 1), minNonLeafKeys);
+        }
+        return collapse(root);
+    }
+
+    /**
+     * Rebalances the shallowest node below the root on {@code path} that has no
+     * keys so that the nodes below it have siblings to borrow from or merge with.
+     * Splits can leave a non-leaf with a single child (for example with an
+     * adaptive split policy). The nodes on the path must be writable. If a node
+     * is rebalanced then the path no longer describes the tree and the root may
+     * need collapsing (see {@link #collapse(Node)}).
+     * 
+     * @param <K>  key type
+     * @param <V>  value type
+     * @param path the non-leaf nodes from the root to a leaf
+     * @return true if and only if a node was rebalanced
+     */
+    public static <K, V> boolean rebalanceNodeWithoutKeys(Path<K, V> path) {
+        for (int level = 1; level < path.size(); level++) {
+            NonLeaf<K, V> node = path.node(level);
+            if (node.numKeys() == 0) {
+                rebalanceNonLeaf(node, path.node(level - 1), path.childIndex(level - 1),
+                        minNonLeafKeys(node.options()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the root of the tree after replacing a root that has a single child
+     * with that child (repeatedly). Replaced roots are released (see
+     * {@link Factory#release(Node)}).
+     * 
+     * @param <K>  key type
+     * @param <V>  value type
+     * @param root current root
+     * @return new root
+     */
+    public static <K, V> Node<K, V> collapse(Node<K, V> root) {
+        while (root instanceof NonLeaf && root.numKeys() == 0) {
+            Node<K, V> child = ((NonLeaf<K, V>) root).child(0);
+            root.factory().release(root);
+            root = child;
+        }
+        return root;
+    }
+
+    static int minLeafKeys(Options<?, ?> options) {
+        return Math.max(1, options.maxLeafKeys() / 2);
+    }
+
+    static int minNonLeafKeys(Options<?, ?> options) {
+        return Math.max(1, (options.maxNonLeafKeys() - 1) / 2);
+    }
+
+    private static <K, V> void rebalanceLeaf(Leaf<K, V> leaf, NonLeaf<K, V> parent, int index) {
+        if (parent.numKeys() == 0) {
+            // no sibling
+            return;
+        }
+        int max = leaf.options().maxLeafKeys();
+        int n = leaf.numKeys();
+        if (index > 0) {
+            Leaf<K, V> left = (Leaf<K, V>) writableChild(parent, index - 1);
+            int m = left.numKeys();
+            if (m + n <= max) {
+                // merge into the left sibling
+                left.insert(m, leaf, 0, n);
+                left.setNext(leaf.next());
+                parent.setChild(index, left);
+                parent.remove(index - 1);
+                leaf.factory().release(leaf);
+            } else {
+                // borrow the last pairs of the left sibling
+                int k = minLeafKeys(leaf.options()) - n;
+                leaf.insert(0, left, m - k, k);
+                left.remove(m - k, k);
+                parent.setKey(index - 1, leaf.key(0));
+            }
+        } else {
+            Leaf<K, V> right = (Leaf<K, V>) writableChild(parent, index + 1);
+            int m = right.numKeys();
+            if (n + m <= max) {
+                // merge the right sibling into this leaf
+                leaf.insert(n, right, 0, m);
+                leaf.setNext(right.next());
+                parent.setChild(index + 1, leaf);
+                parent.remove(index);
+                leaf.factory().release(right);
+            } else {
+                // borrow the first pairs of the right sibling
+                int k = minLeafKeys(leaf.options()) - n;
+                leaf.insert(n, right, 0, k);
+                right.remove(0, k);
+                parent.setKey(index, right.key(0));
+            }
+        }
+    }
+
+    private static <K, V> void rebalanceNonLeaf(NonLeaf<K, V> node, NonLeaf<K, V> parent, int index,
+            int minNonLeafKeys) {
+        if (parent.numKeys() == 0) {
+            // no sibling
+            return;
+        }
+        int max = node.options().maxNonLeafKeys();
+        if (index > 0) {
+            NonLeaf<K, V> left = (NonLeaf<K, V>) writableChild(parent, index - 1);
+            K separator = parent.key(index - 1);
+            if (left.numKeys() + 1 + node.numKeys() <= max) {
+                append(left, separator, node);
+                parent.setChild(index, left);
+                parent.remove(index - 1);
+                node.factory().release(node);
+            } else {
+                // rotate the last children of the left sibling through the parent
+                while (node.numKeys() < minNonLeafKeys) {
+                    int m = left.numKeys();
+                    node.insert(0, separator, left.child(m));
+                    separator = left.key(m - 1);
+                    left.setNumKeys(m - 1);
+                }
+                parent.setKey(index - 1, separator);
+            }
+        } else {
+            NonLeaf<K, V> right = (NonLeaf<K, V>) writableChild(parent, index + 1);
+            K separator = parent.key(index);
+            if (node.numKeys() + 1 + right.numKeys() <= max) {
+                append(node, separator, right);
+                parent.setChild(index + 1, node);
+                parent.remove(index);
+                node.factory().release(right);
+            } else {
+                // rotate the first children of the right sibling through the parent
+                while (node.numKeys() < minNonLeafKeys) {
+                    int n = node.numKeys();
+                    node.setKey(n, separator);
+                    node.setChild(n + 1, right.child(0));
+                    node.setNumKeys(n + 1);
+                    separator = right.key(0);
+                    right.remove(0);
+                }
+                parent.setKey(index, separator);
+            }
+        }
+    }
+
+    // appends the separator and then the keys and children of right to left
+    private static <K, V> void append(NonLeaf<K, V> left, K separator, NonLeaf<K, V> right) {
+        int m = left.numKeys();
+        int n = right.numKeys();
+        left.setKey(m, separator);
+        for (int i = 0; i < n; i++) {
+            left.setKey(m + 1 + i, right.key(i));
+        }
+        for (int i = 0; i <= n; i++) {
+            left.setChild(m + 1 + i, right.child(i));
+        }
+        left.setNumKeys(m + 1 + n);
+    }
+
+    private static <K, V> Node<K, V> writableChild(NonLeaf<K, V> parent, int index) {
+        Node<K, V> child = parent.child(index);
+        Node<K, V> writable = parent.factory().writable(child);
+        if (writable != child) {
+            parent.setChild(index, writable);
+        }
+        return writable;
+    }
+
+}
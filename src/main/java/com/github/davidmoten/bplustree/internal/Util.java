@@ -20,26 +20,27 @@ final class Util {
         }
     }
 
-    static <K, V> void insertNonfull(NonLeaf<K, V> node, K key, V value) {
-        // Simple linear search
-        int index = node.getLocation(key);
-        Node<K, V> child = node.child(index);
-        Split<K, V> result = child.insert(key, value);
-
-        if (result != null) {
-            if (index == node.numKeys()) {
-                // Insertion at the rightmost key
-                node.setKey(index, result.key);
-                node.setChild(index, result.left);
-                node.setChild(index + 1, result.right);
-                node.setNumKeys(node.numKeys() + 1);
-            } else {
-                // Insertion not at the rightmost key
-                // shift i>idx to the right
-                node.insert(index, result.key, result.left);
-                node.setChild(index + 1, result.right);
-            }
-        } // else the current node is not affected
+    /**
+     * Records the split of the child at {@code index} in a non-full node.
+     * 
+     * @param node  non-full node
+     * @param index index of the child that was split
+     * @param split the result of the child split
+     */
+    static <K, V> void insertSplit(NonLeaf<K, V> node, int index, Split<K, V> split) {
+        int numKeys = node.numKeys();
+        if (index == numKeys) {
+            // Insertion at the rightmost key
+            node.setKey(index, split.key);
+            node.setChild(index, split.left);
+            node.setChild(index + 1, split.right);
+            node.setNumKeys(numKeys + 1);
+        } else {
+            // Insertion not at the rightmost key
+            // shift i>idx to the right
+            node.insert(index, split.key, split.left);
+            node.setChild(index + 1, split.right);
+        }
     }
 
     static <K, V> int getLocation(Node<K, V> node, K key, Comparator<? super K> comparator, boolean acceptEquals) {
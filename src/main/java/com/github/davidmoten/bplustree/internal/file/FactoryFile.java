@@ -1,17 +1,32 @@
 package com.github.davidmoten.bplustree.internal.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import com.github.davidmoten.bplustree.Durability;
+import com.github.davidmoten.bplustree.KeyCodec;
 import com.github.davidmoten.bplustree.Serializer;
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer.Flush;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
 import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.Options;
+import com.github.davidmoten.guavamini.Preconditions;
 
 public final class FactoryFile<K, V> implements Factory<K, V> {
 
@@ -19,16 +34,93 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     private static final int NUM_KEYS_BYTES = 1;
     private static final int NUM_NODES_BYTES = 4;
     private static final int POSITION_BYTES = 8;
-    private static final long POSITION_NOT_PRESENT = -1;
+    private static final int ALIGNMENT_BYTES = 8;
+    // in format versions 2 and 3 NUM_KEYS is 4 bytes at the end of the node header
+    private static final int ALIGNED_NUM_KEYS_POSITION = 4;
+    public static final long POSITION_NOT_PRESENT = -1;
+
+    //////////////////////////////////////////////////
+    // Format of the header at the start of the index file
+    // ROOT_POSITION MAGIC VERSION BYTE_ORDER FLAGS RESERVED NEXT_NODE_POSITION
+    // NEXT_VALUE_POSITION KEY_SIZE MAX_LEAF_KEYS MAX_NON_LEAF_KEYS RESERVED
+    // where
+    // ROOT_POSITION is 8 bytes signed long (0 if the tree has not been created)
+    // MAGIC is 4 bytes (absent in files written before the header was added)
+    // VERSION is 1 byte, the format of nodes (1 = packed, 2 = aligned,
+    // 3 = aligned with columnar leaves)
+    // BYTE_ORDER is 1 byte (0 = big-endian, 1 = little-endian), the byte order
+    // of all multi-byte values in the index and value files including the
+    // header from MAGIC on
+    // FLAGS is 1 byte, bit 0 is set once the tree has been written with
+    // copy-on-write so the next pointers of leaves may be stale and scans must
+    // not follow them
+    // NEXT_NODE_POSITION is 8 bytes signed long, position of the next node
+    // NEXT_VALUE_POSITION is 8 bytes signed long, position of the next value
+    // KEY_SIZE, MAX_LEAF_KEYS, MAX_NON_LEAF_KEYS are 4 bytes signed int
+    // FREE_LEAF_POSITION, FREE_NON_LEAF_POSITION are 8 bytes signed long, the
+    // first node of the list of freed leaves and freed non-leaves (0 if empty)
+    // The cursors and free lists in the header are written on every commit and
+    // on close
+    //////////////////////////////////////////////////
+    private static final int HEADER_MAGIC = 0x62707472;
+    private static final int HEADER_MAGIC_POSITION = 8;
+    private static final int HEADER_VERSION_POSITION = 12;
+    private static final int HEADER_BYTE_ORDER_POSITION = 13;
+    private static final int HEADER_FLAGS_POSITION = 14;
+    private static final int FLAG_STALE_LEAF_NEXT_POINTERS = 1;
+    private static final int HEADER_NEXT_NODE_POSITION = 16;
+    private static final int HEADER_NEXT_VALUE_POSITION = 24;
+    private static final int HEADER_KEY_SIZE_POSITION = 32;
+    private static final int HEADER_MAX_LEAF_KEYS_POSITION = 36;
+    private static final int HEADER_MAX_NON_LEAF_KEYS_POSITION = 40;
+    private static final int HEADER_FREE_LEAF_POSITION = 48;
+    private static final int HEADER_FREE_NON_LEAF_POSITION = 56;
+    private static final int HEADER_BYTES = 64;
+
+    //////////////////////////////////////////////////
+    // Format of a freed node
+    // NODE_TYPE NEXT_FREE_POSITION FREE_COUNT
+    // where
+    // NODE_TYPE is one byte (2 = free)
+    // NEXT_FREE_POSITION is 8 bytes signed long, the next node of the free list
+    // (0 if this is the last)
+    // FREE_COUNT is 8 bytes signed long, the length of the free list from this
+    // node on
+    // A freed node keeps the size it was allocated with and is only reused for a
+    // node of the same type
+    //////////////////////////////////////////////////
+    private static final int FREE_TYPE = 2;
+    private static final int FREE_NEXT_POSITION = 1;
+    private static final int FREE_COUNT_POSITION = 9;
+
+    public static final int FORMAT_VERSION_1 = 1;
+    public static final int FORMAT_VERSION_2 = 2;
+    public static final int FORMAT_VERSION_3 = 3;
+
+    // NUM_KEYS is one byte in format version 1
+    public static final int MAX_KEYS_FORMAT_VERSION_1 = 255;
+
     private final Options<K, V> options;
 
+    // node format of the tree, either requested or read from an existing tree
+    private final int formatVersion;
+
+    // bytes before the first entry of a node
+    private final int nodeHeaderBytes;
+
+    // bytes taken by a key in a node
+    private final int keySlotBytes;
+
+    // if true then the keys of a leaf are stored together followed by the value
+    // positions
+    private final boolean columnarLeaves;
+
     // a pool of LeafFile objects to use
     private final List<LeafFile<K, V>> leavesPool;
     private int leavesIndex = 0;
 
-    // position where next node will be written, first 8 bytes are for the position
-    // of the root node
-    private long index = POSITION_BYTES;
+    // position where next node will be written, the header comes first
+    private long index = HEADER_BYTES;
 
     private long valuesIndex = 0; // position where next value will be written
     private final Serializer<K> keySerializer;
@@ -37,15 +129,274 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     private final LargeMappedByteBuffer values;
     private final Runnable onClose;
 
+    // if true then nodes reachable from the last published root are never modified
+    // in place so that other threads can read the tree while it is being written
+    private final boolean copyOnWrite;
+
+    // fixed size fields are read and written using the absolute methods of bb
+    // and values which are thread-safe. Serializers need a positioned buffer so
+    // when copyOnWrite is true each thread uses its own cursors over bb and values
+    private final ThreadLocal<LargeMappedByteBuffer> threadBb;
+    private final ThreadLocal<LargeMappedByteBuffer> threadValues;
+
+    // non-null if keys can be compared in their serialized form (the key
+    // serializer is a KeyCodec and keys are in natural order)
+    private final KeyCodec<K> keyCodec;
+
+    // true if keys are longs written by Serializer.LONG and in natural order so can
+    // be compared without boxing
+    private final boolean longKeys;
+
+    // the last search key encoded by keyCodec, per thread when copyOnWrite is true
+    private final EncodedKey<K> encodedKey;
+    private final ThreadLocal<EncodedKey<K>> threadEncodedKey;
+
+    // true if the tree has been written with copy-on-write (now or before)
+    private boolean staleLeafNextPointers;
+
+    // true if the tree was written before the header was added. The positions of
+    // the next node and value were not stored so the tree can only be read
+    private boolean readOnly;
+
+    // nodes at positions before this were reachable from the last published root
+    private long publishedIndex;
+
+    // heads of the lists of freed nodes (0 if empty) and their lengths
+    private long freeLeaves;
+    private long freeLeavesCount;
+    private long freeNonLeaves;
+    private long freeNonLeavesCount;
+
+    // zeros written over the header of a reused node
+    private final byte[] emptyNodeHeader;
+
+    // when copyOnWrite is true, incremented every time a root is published
+    private volatile long epoch;
+
+    // when copyOnWrite is true, the number of searches in progress by the epoch
+    // they started in (see beginRead)
+    private final Readers readers;
+
+    // when copyOnWrite is true, the positions of released nodes that were
+    // reachable from a published root and the epochs they were released in (in
+    // ascending order). Searches that started in or before that epoch may still be
+    // reading them so they are freed on a later commit (or on close)
+    private long[] releasedPositions;
+    private long[] releasedEpochs;
+    private int releasedCount;
+
+    // when copyOnWrite is true, positions of nodes taken from the free lists since
+    // the root was last published (they are before publishedIndex but not yet
+    // reachable by readers)
+    private final Set<Long> reusedUnpublished;
+
+    private final Durability durability;
+
+    // forces commits in the background, created on first use unless durability is
+    // periodic
+    private Flusher flusher;
+
     public FactoryFile(Options<K, V> options, File directory, Serializer<K> keySerializer,
             Serializer<V> valueSerializer, int segmentSizeBytes, Runnable onClose) {
+        this(options, directory, keySerializer, valueSerializer, segmentSizeBytes, onClose, false,
+                LargeMappedByteBuffer.MAX_MAPPED_SEGMENTS_UNBOUNDED, LargeMappedByteBuffer.PREPARE_NEXT_SEGMENT_DISABLED,
+                false, Durability.ON_COMMIT, FORMAT_VERSION_1);
+    }
+
+    public FactoryFile(Options<K, V> options, File directory, Serializer<K> keySerializer,
+            Serializer<V> valueSerializer, int segmentSizeBytes, Runnable onClose, boolean copyOnWrite,
+            int maxMappedSegments, double prepareNextSegmentFraction, boolean preTouch, Durability durability,
+            int formatVersion) {
+        // readers could be using a segment that the writer unmaps
+        Preconditions.checkArgument(
+                !copyOnWrite || maxMappedSegments == LargeMappedByteBuffer.MAX_MAPPED_SEGMENTS_UNBOUNDED,
+                "concurrent readers cannot be used with a maximum number of mapped segments");
+        Preconditions.checkArgument(formatVersion >= FORMAT_VERSION_1 && formatVersion <= FORMAT_VERSION_3,
+                "unsupported format version " + formatVersion);
         this.options = options;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.onClose = onClose;
-        this.bb = new LargeMappedByteBuffer(directory, segmentSizeBytes, "index-");
-        this.values = new LargeMappedByteBuffer(directory, segmentSizeBytes, "value-");
+        // the format of an existing tree wins so that it can be read
+        byte[] header = directory == null ? null : readHeaderStart(new File(directory, "index-0"));
+        ByteOrder order;
+        if (header == null) {
+            this.formatVersion = formatVersion;
+            order = formatVersion == FORMAT_VERSION_1 ? ByteOrder.BIG_ENDIAN : ByteOrder.nativeOrder();
+        } else if (hasMagic(header)) {
+            this.formatVersion = header[HEADER_VERSION_POSITION];
+            order = header[HEADER_BYTE_ORDER_POSITION] == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        } else {
+            // written before the header was added when nodes were always in format
+            // version 1 and big-endian
+            this.formatVersion = FORMAT_VERSION_1;
+            order = ByteOrder.BIG_ENDIAN;
+        }
+        if (this.formatVersion == FORMAT_VERSION_1) {
+            this.nodeHeaderBytes = NODE_TYPE_BYTES + NUM_KEYS_BYTES;
+            this.keySlotBytes = keySerializer.maxSize();
+        } else if (this.formatVersion == FORMAT_VERSION_2 || this.formatVersion == FORMAT_VERSION_3) {
+            this.nodeHeaderBytes = ALIGNMENT_BYTES;
+            this.keySlotBytes = align(keySerializer.maxSize());
+        } else {
+            throw new IllegalStateException("unsupported format version " + this.formatVersion);
+        }
+        this.columnarLeaves = this.formatVersion == FORMAT_VERSION_3;
+        if (this.formatVersion == FORMAT_VERSION_1) {
+            Preconditions.checkArgument(
+                    options.maxLeafKeys() <= MAX_KEYS_FORMAT_VERSION_1
+                            && options.maxNonLeafKeys() <= MAX_KEYS_FORMAT_VERSION_1,
+                    "format version 1 supports at most " + MAX_KEYS_FORMAT_VERSION_1
+                            + " keys per node, use format version 2 or 3 for more");
+        }
+        // a null directory keeps the segments off-heap
+        this.bb = new LargeMappedByteBuffer(directory, segmentSizeBytes, "index-", maxMappedSegments,
+                prepareNextSegmentFraction, preTouch, order);
+        this.values = new LargeMappedByteBuffer(directory, segmentSizeBytes, "value-", maxMappedSegments,
+                prepareNextSegmentFraction, preTouch, order);
+        // nodes never straddle segments
+        Preconditions.checkArgument(Math.max(leafBytes(), nonLeafBytes()) <= segmentSizeBytes,
+                "segmentSizeBytes must be at least the size of a node (" + Math.max(leafBytes(), nonLeafBytes())
+                        + " bytes)");
         this.leavesPool = createLeafPool(this, 10);
+        this.emptyNodeHeader = new byte[nodeHeaderBytes];
+        this.copyOnWrite = copyOnWrite;
+        this.readers = copyOnWrite ? new Readers() : null;
+        this.releasedPositions = copyOnWrite ? new long[16] : null;
+        this.releasedEpochs = copyOnWrite ? new long[16] : null;
+        this.reusedUnpublished = copyOnWrite ? new HashSet<Long>() : null;
+        this.durability = durability;
+        if (durability.mode() == Durability.Mode.PERIODIC) {
+            this.flusher = new Flusher(durability.intervalMs());
+        }
+        if (copyOnWrite) {
+            this.threadBb = ThreadLocal.withInitial(bb::duplicate);
+            this.threadValues = ThreadLocal.withInitial(values::duplicate);
+        } else {
+            this.threadBb = null;
+            this.threadValues = null;
+        }
+        this.longKeys = keySerializer == Serializer.LONG && options.comparator() == Comparator.naturalOrder();
+        // encoded keys sort in natural order so other comparators compare keys as
+        // objects
+        if (keySerializer instanceof KeyCodec && options.comparator() == Comparator.naturalOrder()) {
+            this.keyCodec = (KeyCodec<K>) keySerializer;
+            if (copyOnWrite) {
+                this.encodedKey = null;
+                this.threadEncodedKey = ThreadLocal.withInitial(() -> new EncodedKey<K>(keyCodec));
+            } else {
+                this.encodedKey = new EncodedKey<K>(keyCodec);
+                this.threadEncodedKey = null;
+            }
+        } else {
+            this.keyCodec = null;
+            this.encodedKey = null;
+            this.threadEncodedKey = null;
+        }
+    }
+
+    /**
+     * Returns the maximum number of keys that fit in a leaf node of the given size
+     * in bytes.
+     * 
+     * @param nodeSizeBytes size of a node in bytes
+     * @param keySizeBytes  maximum size of a serialized key in bytes
+     * @param formatVersion node format version
+     * @return maximum number of keys in a leaf node
+     */
+    public static int maxLeafKeys(int nodeSizeBytes, int keySizeBytes, int formatVersion) {
+        if (formatVersion == FORMAT_VERSION_1) {
+            return maxKeys(nodeSizeBytes - NODE_TYPE_BYTES - NUM_KEYS_BYTES - POSITION_BYTES,
+                    keySizeBytes + POSITION_BYTES);
+        } else {
+            return maxKeys(nodeSizeBytes - ALIGNMENT_BYTES - POSITION_BYTES, align(keySizeBytes) + POSITION_BYTES);
+        }
+    }
+
+    /**
+     * Returns the maximum number of keys that fit in a non-leaf node of the given
+     * size in bytes.
+     * 
+     * @param nodeSizeBytes size of a node in bytes
+     * @param keySizeBytes  maximum size of a serialized key in bytes
+     * @param formatVersion node format version
+     * @return maximum number of keys in a non-leaf node
+     */
+    public static int maxNonLeafKeys(int nodeSizeBytes, int keySizeBytes, int formatVersion) {
+        if (formatVersion == FORMAT_VERSION_1) {
+            return maxKeys(nodeSizeBytes - NODE_TYPE_BYTES - NUM_NODES_BYTES - POSITION_BYTES,
+                    keySizeBytes + POSITION_BYTES);
+        } else {
+            return maxKeys(nodeSizeBytes - ALIGNMENT_BYTES - POSITION_BYTES, align(keySizeBytes) + POSITION_BYTES);
+        }
+    }
+
+    private static int maxKeys(int entriesBytes, int entryBytes) {
+        int n = entriesBytes / entryBytes;
+        Preconditions.checkArgument(n > 0, "node size too small to hold a key");
+        return n;
+    }
+
+    /**
+     * Returns the bytes of the header of an existing tree from ROOT_POSITION to
+     * BYTE_ORDER inclusive or null if there is no existing tree. Read directly
+     * from the file because the byte order of the buffers depends on it. A tree
+     * written before the header was added has no MAGIC (see
+     * {@link #hasMagic(byte[])}).
+     * 
+     * @param file first index file
+     * @return header bytes or null
+     */
+    private static byte[] readHeaderStart(File file) {
+        if (!file.exists() || file.length() < HEADER_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[HEADER_BYTE_ORDER_POSITION + 1];
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            f.readFully(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < POSITION_BYTES; i++) {
+            if (bytes[i] != 0) {
+                return bytes;
+            }
+        }
+        // the root position is 0 so the tree has not been created
+        return null;
+    }
+
+    private static boolean hasMagic(byte[] header) {
+        byte byteOrder = header[HEADER_BYTE_ORDER_POSITION];
+        ByteBuffer magic = ByteBuffer.wrap(header, HEADER_MAGIC_POSITION, 4)
+                .order(byteOrder == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return magic.getInt() == HEADER_MAGIC;
+    }
+
+    private static int align(int n) {
+        return (n + ALIGNMENT_BYTES - 1) / ALIGNMENT_BYTES * ALIGNMENT_BYTES;
+    }
+
+    public int formatVersion() {
+        return formatVersion;
+    }
+
+    // with concurrent readers nodes are read through a duplicate per thread so
+    // that readers don't share the position and last used segment of bb
+    private LargeMappedByteBuffer reader() {
+        return copyOnWrite ? threadBb.get() : bb;
+    }
+
+    private LargeMappedByteBuffer indexCursor(long position) {
+        LargeMappedByteBuffer cursor = reader();
+        cursor.position(position);
+        return cursor;
+    }
+
+    private LargeMappedByteBuffer valuesCursor(long position) {
+        LargeMappedByteBuffer cursor = copyOnWrite ? threadValues.get() : values;
+        cursor.position(position);
+        return cursor;
     }
 
     //////////////////////////////////////////////////
@@ -58,6 +409,15 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     // VALUE is a byte array of fixed size
     // NEXT_LEAF_POSITION is 8 bytes signed long
     // Every Leaf has space allocated for maxLeafKeys key value pairs
+    //
+    // In format version 2 the node header is 8 bytes: NODE_TYPE, 3 bytes of
+    // padding then NUM_KEYS as 4 bytes signed int. Every KEY is padded to a
+    // multiple of 8 bytes so that all positions and keys are 8 byte aligned
+    // (nodes start at multiples of 8)
+    //
+    // Format version 3 is as version 2 but columnar:
+    // NODE_TYPE NUM_KEYS PADDING KEY* VALUE* NEXT_LEAF_POSITION
+    // so that a binary search over the keys doesn't read value positions
     //////////////////////////////////////////////////
 
     private static <K, V> List<LeafFile<K, V>> createLeafPool(FactoryFile<K, V> factory, int size) {
@@ -72,7 +432,10 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     }
 
     private Leaf<K, V> getLeaf(long position) {
-//        return new LeafFile<K, V>(this, position);
+        if (copyOnWrite) {
+            // readers may hold on to any leaf so don't reuse leaf objects
+            return new LeafFile<K, V>(this, position);
+        }
         LeafFile<K, V> leaf = leavesPool.get(leavesIndex);
         leavesIndex = (leavesIndex + 1) % leavesPool.size();
         leaf.position(position);
@@ -80,113 +443,334 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     }
 
     private int leafBytes() {
-        return relativeLeafKeyPosition(options.maxLeafKeys()) //
+        return relativeLeafNextPosition() //
                 + POSITION_BYTES; // next leaf position
     }
 
     private long leafNextPosition() {
-        long i = index;
-        bb.position(index);
-        bb.put((byte) Leaf.TYPE);
-        bb.position(index + leafBytes() - POSITION_BYTES);
-        bb.putLong(POSITION_NOT_PRESENT);
-        // shift by max size of a leaf node: numKeys, keys, values, next leaf position
+        // max size of a leaf node: numKeys, keys, values, next leaf position
         // (b+tree pointer to next leaf node)
-        index += leafBytes();
+        long i = allocateNode(true);
+        bb.put(i, (byte) Leaf.TYPE);
+        bb.putLong(i + leafBytes() - POSITION_BYTES, POSITION_NOT_PRESENT);
         return i;
     }
 
+    /**
+     * Returns the position of a new leaf or non-leaf, reusing a freed node of the
+     * same type if there is one. The header of a reused node is cleared so that it
+     * has no keys as a new node does.
+     * 
+     * @param isLeaf true for a leaf, false for a non-leaf
+     * @return position of the node
+     */
+    private long allocateNode(boolean isLeaf) {
+        long position = isLeaf ? freeLeaves : freeNonLeaves;
+        if (position == 0) {
+            return allocate(isLeaf ? leafBytes() : nonLeafBytes());
+        }
+        long next = bb.getLong(position + FREE_NEXT_POSITION);
+        if (isLeaf) {
+            freeLeaves = next;
+            freeLeavesCount--;
+        } else {
+            freeNonLeaves = next;
+            freeNonLeavesCount--;
+        }
+        bb.put(position, emptyNodeHeader);
+        if (copyOnWrite) {
+            reusedUnpublished.add(position);
+        }
+        return position;
+    }
+
+    @Override
+    public void release(Node<K, V> node) {
+        long position = ((NodeFile) node).position();
+        if (copyOnWrite && isPublished(position)) {
+            if (releasedCount == releasedPositions.length) {
+                releasedPositions = Arrays.copyOf(releasedPositions, releasedCount * 2);
+                releasedEpochs = Arrays.copyOf(releasedEpochs, releasedCount * 2);
+            }
+            releasedPositions[releasedCount] = position;
+            releasedEpochs[releasedCount] = epoch;
+            releasedCount++;
+        } else {
+            free(position, node instanceof Leaf);
+        }
+    }
+
+    // pushes the node at position onto the free list of its type
+    private void free(long position, boolean isLeaf) {
+        long next = isLeaf ? freeLeaves : freeNonLeaves;
+        long count = (isLeaf ? freeLeavesCount : freeNonLeavesCount) + 1;
+        bb.put(position, (byte) FREE_TYPE);
+        bb.putLong(position + FREE_NEXT_POSITION, next);
+        bb.putLong(position + FREE_COUNT_POSITION, count);
+        if (isLeaf) {
+            freeLeaves = position;
+            freeLeavesCount = count;
+        } else {
+            freeNonLeaves = position;
+            freeNonLeavesCount = count;
+        }
+    }
+
+    /**
+     * Frees the released nodes that were reachable from a published root and that
+     * no search can still be reading: those released in an epoch before the
+     * current one and before the epoch of every search in progress.
+     */
+    private void freeReleased() {
+        freeReleasedBefore(readers.oldest(epoch));
+    }
+
+    private void freeReleasedBefore(long before) {
+        int n = 0;
+        while (n < releasedCount && releasedEpochs[n] < before) {
+            long position = releasedPositions[n];
+            free(position, isLeaf(position));
+            n++;
+        }
+        System.arraycopy(releasedPositions, n, releasedPositions, 0, releasedCount - n);
+        System.arraycopy(releasedEpochs, n, releasedEpochs, 0, releasedCount - n);
+        releasedCount -= n;
+    }
+
+    @Override
+    public long beginRead() {
+        if (!copyOnWrite) {
+            return 0;
+        }
+        // registered before the search reads the root so a commit either sees the
+        // search or the search sees a root published after the nodes freed by that
+        // commit were released
+        return readers.begin(epoch);
+    }
+
+    @Override
+    public void endRead(long read) {
+        if (copyOnWrite) {
+            readers.end(read);
+        }
+    }
+
+    private boolean isPublished(long position) {
+        return position < publishedIndex && !reusedUnpublished.contains(position);
+    }
+
+    /**
+     * Returns the number of freed leaves available for reuse.
+     * 
+     * @return number of free leaves
+     */
+    public long freeLeaves() {
+        return freeLeavesCount;
+    }
+
+    /**
+     * Returns the number of freed non-leaf nodes available for reuse.
+     * 
+     * @return number of free non-leaf nodes
+     */
+    public long freeNonLeaves() {
+        return freeNonLeavesCount;
+    }
+
+    /**
+     * Returns the number of bytes of the index taken by freed nodes available for
+     * reuse.
+     * 
+     * @return bytes of free nodes
+     */
+    public long freeBytes() {
+        return freeLeavesCount * leafBytes() + freeNonLeavesCount * nonLeafBytes();
+    }
+
+    /**
+     * Returns the number of bytes of the index that are neither the header nor
+     * free nodes. Includes the nodes of the tree, released nodes that readers may
+     * still be reading (with concurrent readers) and bytes skipped so that nodes
+     * don't cross page or segment boundaries.
+     * 
+     * @return bytes used
+     */
+    public long usedBytes() {
+        return index - HEADER_BYTES - freeBytes();
+    }
+
+    /**
+     * Returns the position of a new node of the given size and moves
+     * {@code index} past it. A node never straddles a segment and does not cross
+     * a page boundary unless it is bigger than a page in which case it starts at
+     * a page boundary. The bytes skipped to achieve that are left unused.
+     * 
+     * @param nodeBytes size of the node in bytes
+     * @return position of the node
+     */
+    private long allocate(int nodeBytes) {
+        checkWritable();
+        int segmentSizeBytes = bb.segmentSizeBytes();
+        long segmentStart = index - index % segmentSizeBytes;
+        // offset from start of segment file (pages are relative to file start)
+        long offset = index - segmentStart;
+        int pageOffset = (int) (offset % LargeMappedByteBuffer.PAGE_SIZE_BYTES);
+        if (pageOffset != 0 && pageOffset + nodeBytes > LargeMappedByteBuffer.PAGE_SIZE_BYTES) {
+            offset += LargeMappedByteBuffer.PAGE_SIZE_BYTES - pageOffset;
+        }
+        if (offset + nodeBytes > segmentSizeBytes) {
+            // start of the next segment
+            offset = segmentSizeBytes;
+        }
+        long position = segmentStart + offset;
+        index = position + nodeBytes;
+        bb.prepare(index);
+        return position;
+    }
+
     private int relativeLeafKeyPosition(int i) {
-        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * (keySerializer.maxSize() + POSITION_BYTES);
+        if (columnarLeaves) {
+            return nodeHeaderBytes + i * keySlotBytes;
+        } else {
+            return nodeHeaderBytes + i * (keySlotBytes + POSITION_BYTES);
+        }
+    }
+
+    private int relativeLeafValuePosition(int i) {
+        if (columnarLeaves) {
+            return nodeHeaderBytes + options.maxLeafKeys() * keySlotBytes + i * POSITION_BYTES;
+        } else {
+            return relativeLeafKeyPosition(i) + keySlotBytes;
+        }
+    }
+
+    private int relativeLeafNextPosition() {
+        return nodeHeaderBytes + options.maxLeafKeys() * (keySlotBytes + POSITION_BYTES);
     }
 
     public K leafKey(long position, int i) {
-        long p = position + relativeLeafKeyPosition(i);
-        bb.position(p);
-        return keySerializer.read(bb);
+        return keySerializer.read(indexCursor(position + relativeLeafKeyPosition(i)));
     }
 
     public int leafNumKeys(long position) {
-        bb.position(position + NODE_TYPE_BYTES);
-        return bb.get() & 0xFF;
+        return numKeys(position);
     }
 
     public void leafSetNumKeys(long position, int numKeys) {
-        bb.position(position + NODE_TYPE_BYTES);
-        bb.put((byte) numKeys);
+        setNumKeys(position, numKeys);
     }
 
     public V leafValue(long position, int i) {
-        long p = position + relativeLeafKeyPosition(i) + keySerializer.maxSize();
-        bb.position(p);
-        long valuePos = bb.getLong();
-        values.position(valuePos);
-        return valueSerializer.read(values);
+        long p = position + relativeLeafValuePosition(i);
+        return valueSerializer.read(valuesCursor(reader().getLong(p)));
     }
 
     public void leafSetValue(long position, int i, V value) {
-        long p = position + relativeLeafKeyPosition(i) + keySerializer.maxSize();
-        bb.position(p);
-        bb.putLong(valuesIndex);
-        values.position(valuesIndex);
-        valueSerializer.write(values, value);
-        valuesIndex = values.position();
+        checkWritable();
+        bb.putLong(position + relativeLeafValuePosition(i), writeValue(value));
     }
 
-    public void leafInsert(long position, int i, K key, V value) {
-        int relativeStart = relativeLeafKeyPosition(i);
-        int relativeFinish = relativeLeafKeyPosition(leafNumKeys(position));
+    // returns the position of the written value
+    private long writeValue(V value) {
+        long p = valuesIndex;
+        LargeMappedByteBuffer cursor = valuesCursor(p);
+        valueSerializer.write(cursor, value);
+        valuesIndex = cursor.position();
+        values.prepare(valuesIndex);
+        return p;
+    }
 
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[relativeFinish - relativeStart];
-        bb.get(bytes);
+    public void leafInsert(long position, int i, K key, V value) {
+        checkWritable();
+        int numKeys = leafNumKeys(position);
 
         // copy bytes across one key
-        bb.position(position + relativeLeafKeyPosition(i + 1));
-        bb.put(bytes);
+        if (columnarLeaves) {
+            bb.copy(position + relativeLeafKeyPosition(i), position + relativeLeafKeyPosition(i + 1),
+                    (numKeys - i) * keySlotBytes);
+            bb.copy(position + relativeLeafValuePosition(i), position + relativeLeafValuePosition(i + 1),
+                    (numKeys - i) * POSITION_BYTES);
+        } else {
+            int relativeStart = relativeLeafKeyPosition(i);
+            bb.copy(position + relativeStart, position + relativeLeafKeyPosition(i + 1),
+                    relativeLeafKeyPosition(numKeys) - relativeStart);
+        }
 
         // write inserted key and value
-        long p = position + relativeStart;
-        bb.position(p);
-        keySerializer.write(bb, key);
-        bb.position(p + keySerializer.maxSize());
-        bb.putLong(valuesIndex);
-        values.position(valuesIndex);
-        valueSerializer.write(values, value);
-        valuesIndex = values.position();
+        keySerializer.write(indexCursor(position + relativeLeafKeyPosition(i)), key);
+        bb.putLong(position + relativeLeafValuePosition(i), writeValue(value));
         // increment number of keys in leaf node
-        leafSetNumKeys(position, leafNumKeys(position) + 1);
+        leafSetNumKeys(position, numKeys + 1);
     }
 
     public void leafMove(long position, int start, int length, LeafFile<K, V> other) {
-        int relativeStart = relativeLeafKeyPosition(start);
-        int relativeEnd = relativeLeafKeyPosition(start + length);
-        byte[] bytes = new byte[relativeEnd - relativeStart];
-        bb.position(position + relativeStart);
-        bb.get(bytes);
-        long p = other.position() + relativeLeafKeyPosition(0);
-        bb.position(p);
-        bb.put(bytes);
+        if (columnarLeaves) {
+            bb.copy(position + relativeLeafKeyPosition(start), other.position() + relativeLeafKeyPosition(0),
+                    length * keySlotBytes);
+            bb.copy(position + relativeLeafValuePosition(start), other.position() + relativeLeafValuePosition(0),
+                    length * POSITION_BYTES);
+        } else {
+            int relativeStart = relativeLeafKeyPosition(start);
+            bb.copy(position + relativeStart, other.position() + relativeLeafKeyPosition(0),
+                    relativeLeafKeyPosition(start + length) - relativeStart);
+        }
         // set the number of keys in source node to be `start`
         leafSetNumKeys(position, start);
         leafSetNumKeys(other.position(), length);
     }
 
+    public void leafRemove(long position, int i, int length) {
+        int numKeys = leafNumKeys(position);
+        if (columnarLeaves) {
+            bb.copy(position + relativeLeafKeyPosition(i + length), position + relativeLeafKeyPosition(i),
+                    (numKeys - i - length) * keySlotBytes);
+            bb.copy(position + relativeLeafValuePosition(i + length), position + relativeLeafValuePosition(i),
+                    (numKeys - i - length) * POSITION_BYTES);
+        } else {
+            int relativeStart = relativeLeafKeyPosition(i + length);
+            bb.copy(position + relativeStart, position + relativeLeafKeyPosition(i),
+                    relativeLeafKeyPosition(numKeys) - relativeStart);
+        }
+        leafSetNumKeys(position, numKeys - length);
+    }
+
+    public void leafInsert(long position, int i, LeafFile<K, V> other, int start, int length) {
+        int numKeys = leafNumKeys(position);
+        long otherPosition = other.position();
+        // make room then copy the entries (value positions are shared, not the values)
+        if (columnarLeaves) {
+            bb.copy(position + relativeLeafKeyPosition(i), position + relativeLeafKeyPosition(i + length),
+                    (numKeys - i) * keySlotBytes);
+            bb.copy(position + relativeLeafValuePosition(i), position + relativeLeafValuePosition(i + length),
+                    (numKeys - i) * POSITION_BYTES);
+            bb.copy(otherPosition + relativeLeafKeyPosition(start), position + relativeLeafKeyPosition(i),
+                    length * keySlotBytes);
+            bb.copy(otherPosition + relativeLeafValuePosition(start), position + relativeLeafValuePosition(i),
+                    length * POSITION_BYTES);
+        } else {
+            int relativeStart = relativeLeafKeyPosition(i);
+            bb.copy(position + relativeStart, position + relativeLeafKeyPosition(i + length),
+                    relativeLeafKeyPosition(numKeys) - relativeStart);
+            int relativeOtherStart = relativeLeafKeyPosition(start);
+            bb.copy(otherPosition + relativeOtherStart, position + relativeStart,
+                    relativeLeafKeyPosition(start + length) - relativeOtherStart);
+        }
+        leafSetNumKeys(position, numKeys + length);
+    }
+
     public void leafSetNext(long position, LeafFile<K, V> sibling) {
-        long p = position + relativeLeafKeyPosition(options.maxLeafKeys());
+        long p = position + relativeLeafNextPosition();
         long v;
         if (sibling == null) {
             v = POSITION_NOT_PRESENT;
         } else {
             v = sibling.position();
         }
-        bb.position(p);
-        bb.putLong(v);
+        bb.putLong(p, v);
     }
 
     public LeafFile<K, V> leafNext(long position) {
-        bb.position(position + relativeLeafKeyPosition(options.maxLeafKeys()));
-        long p = bb.getLong();
+        long p = leafNextLeafPosition(position);
         if (p == POSITION_NOT_PRESENT) {
             return null;
         } else {
@@ -204,6 +788,9 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     // KEY is a fixed size byte array
     // RIGHT_CHILD_POSITION is 8 bytes signed long
     // Every NonLeaf has space allocated for maxNonLeafKeys keys
+    //
+    // In format versions 2 and 3 the node header is as for a Leaf and every KEY
+    // is padded to a multiple of 8 bytes
     //////////////////////////////////////////////////
 
     @Override
@@ -214,47 +801,77 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
     private int nonLeafBytes() {
         // every key has a child node to the left and the final key has a child node to
         // the right as well as the left
-        return NODE_TYPE_BYTES + NUM_NODES_BYTES + options.maxNonLeafKeys() * (POSITION_BYTES + keySerializer.maxSize())
-                + POSITION_BYTES;
+        if (formatVersion == FORMAT_VERSION_1) {
+            return NODE_TYPE_BYTES + NUM_NODES_BYTES
+                    + options.maxNonLeafKeys() * (POSITION_BYTES + keySerializer.maxSize()) + POSITION_BYTES;
+        } else {
+            return relativePositionNonLeafEntry(options.maxNonLeafKeys()) + POSITION_BYTES;
+        }
     }
 
     private long nextNonLeafPosition() {
-        long i = index;
-        bb.position(index);
-        bb.put((byte) NonLeaf.TYPE);
-        index += nonLeafBytes();
+        long i = allocateNode(false);
+        bb.put(i, (byte) NonLeaf.TYPE);
         return i;
     }
 
     public void nonLeafSetNumKeys(long position, int numKeys) {
-        bb.position(position + NODE_TYPE_BYTES);
-        bb.put((byte) numKeys);
+        setNumKeys(position, numKeys);
     }
 
     public int nonLeafNumKeys(long position) {
-        bb.position(position + NODE_TYPE_BYTES);
-        return bb.get() & 0xFF;
+        return numKeys(position);
+    }
+
+    private int numKeys(long position) {
+        if (formatVersion == FORMAT_VERSION_1) {
+            return reader().get(position + NODE_TYPE_BYTES) & 0xFF;
+        } else {
+            return reader().getInt(position + ALIGNED_NUM_KEYS_POSITION);
+        }
+    }
+
+    private void setNumKeys(long position, int numKeys) {
+        if (formatVersion == FORMAT_VERSION_1) {
+            bb.put(position + NODE_TYPE_BYTES, (byte) numKeys);
+        } else {
+            bb.putInt(position + ALIGNED_NUM_KEYS_POSITION, numKeys);
+        }
     }
 
     public void nonLeafSetChild(long position, int i, NodeFile node) {
-        long p = position + relativePositionNonLeafEntry(i);
-        bb.position(p);
-        bb.putLong(node.position());
+        bb.putLong(position + relativePositionNonLeafEntry(i), node.position());
     }
 
     private int relativePositionNonLeafEntry(int i) {
-        return NODE_TYPE_BYTES + NUM_KEYS_BYTES + i * (POSITION_BYTES + keySerializer.maxSize());
+        return nodeHeaderBytes + i * (POSITION_BYTES + keySlotBytes);
+    }
+
+    /**
+     * Returns the position of the leaf following the leaf at {@code position} or
+     * {@link #POSITION_NOT_PRESENT} if there is none.
+     * 
+     * @param position position of a leaf
+     * @return position of the next leaf or {@link #POSITION_NOT_PRESENT}
+     */
+    public long leafNextLeafPosition(long position) {
+        return reader().getLong(position + relativeLeafNextPosition());
     }
 
     public Node<K, V> nonLeafChild(long position, int i) {
-        bb.position(position + relativePositionNonLeafEntry(i));
-        long pos = bb.getLong();
-        return readNode(pos);
+        return readNode(nonLeafChildPosition(position, i));
+    }
+
+    public long nonLeafChildPosition(long position, int i) {
+        return reader().getLong(position + relativePositionNonLeafEntry(i));
+    }
+
+    public boolean isLeaf(long position) {
+        return reader().get(position) == Leaf.TYPE;
     }
 
     private Node<K, V> readNode(long pos) {
-        bb.position(pos);
-        int type = bb.get();
+        int type = reader().get(pos);
         if (type == Leaf.TYPE) {
             return new LeafFile<K,V>(this, pos);
 //            return getLeaf(pos);
@@ -263,14 +880,148 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
         }
     }
 
+    /**
+     * Returns true if {@link #getLocation(long, boolean, Object)} can search a node
+     * without reading its keys as objects.
+     * 
+     * @return true if keys can be searched without reading them as objects
+     */
+    boolean searchesKeysInPlace() {
+        return keyCodec != null || longKeys;
+    }
+
+    /**
+     * Returns the position where {@code key} should be inserted in the node at
+     * {@code position} comparing {@code key} with the serialized keys of the node
+     * (see {@link KeyCodec}) or with the long keys of the node. In a leaf that is
+     * the first index whose key is greater than or equal to {@code key}, in a
+     * non-leaf the first index whose key is greater than {@code key}. Returns the
+     * number of keys in the node if there is no such index. Must only be called if
+     * {@link #searchesKeysInPlace()} is true.
+     * 
+     * @param position position of the node
+     * @param isLeaf   whether the node is a leaf
+     * @param key      key to search for
+     * @return the position where key should be inserted
+     */
+    int getLocation(long position, boolean isLeaf, K key) {
+        if (keyCodec == null) {
+            return getLocationLong(position, isLeaf, (Long) key);
+        }
+        EncodedKey<K> k = copyOnWrite ? threadEncodedKey.get() : encodedKey;
+        k.encode(key);
+        int start = 0;
+        int finish = numKeys(position);
+        while (start < finish) {
+            int mid = (start + finish) >>> 1;
+            long p = position + (isLeaf ? relativeLeafKeyPosition(mid)
+                    : relativePositionNonLeafEntry(mid) + POSITION_BYTES);
+            int c = compareSerialized(k, p);
+            if (c < 0 || (isLeaf && c == 0)) {
+                finish = mid;
+            } else {
+                start = mid + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * As {@link #getLocation(long, boolean, Object)} for a tree whose keys are
+     * written by {@link Serializer#LONG} and are in natural order.
+     * 
+     * @param position position of the node
+     * @param isLeaf   whether the node is a leaf
+     * @param key      key to search for
+     * @return the position where key should be inserted
+     */
+    public int getLocationLong(long position, boolean isLeaf, long key) {
+        int start = 0;
+        int finish = numKeys(position);
+        while (start < finish) {
+            int mid = (start + finish) >>> 1;
+            long k = isLeaf ? leafKeyLong(position, mid) : nonLeafKeyLong(position, mid);
+            if (key < k || (isLeaf && key == k)) {
+                finish = mid;
+            } else {
+                start = mid + 1;
+            }
+        }
+        return start;
+    }
+
+    public long leafKeyLong(long position, int i) {
+        return reader().getLong(position + relativeLeafKeyPosition(i));
+    }
+
+    public long nonLeafKeyLong(long position, int i) {
+        return reader().getLong(position + relativePositionNonLeafEntry(i) + POSITION_BYTES);
+    }
+
+    // compares the encoded key with the serialized key at position p in the index
+    private int compareSerialized(EncodedKey<K> k, long p) {
+        LargeMappedByteBuffer buffer = reader();
+        int size = k.bytes.length;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int i = 0;
+        for (int w = 0; w < k.words.length; w++, i += Long.BYTES) {
+            long v = buffer.getLong(p + i);
+            if (!bigEndian) {
+                v = Long.reverseBytes(v);
+            }
+            if (k.words[w] != v) {
+                return Long.compareUnsigned(k.words[w], v);
+            }
+        }
+        for (; i < size; i++) {
+            int c = (k.bytes[i] & 0xFF) - (buffer.get(p + i) & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A search key in serialized form, reused while the same key object is
+     * searched for (for example at every level of a descent).
+     */
+    private static final class EncodedKey<K> {
+
+        private final KeyCodec<K> codec;
+        private final byte[] bytes;
+        // the first bytes as big-endian longs
+        private final long[] words;
+        private K key;
+
+        EncodedKey(KeyCodec<K> codec) {
+            this.codec = codec;
+            this.bytes = new byte[codec.maxSize()];
+            this.words = new long[bytes.length / Long.BYTES];
+        }
+
+        void encode(K key) {
+            if (key == this.key) {
+                return;
+            }
+            codec.encode(key, bytes);
+            for (int w = 0; w < words.length; w++) {
+                long v = 0;
+                for (int i = w * Long.BYTES; i < (w + 1) * Long.BYTES; i++) {
+                    v = (v << 8) | (bytes[i] & 0xFF);
+                }
+                words[w] = v;
+            }
+            this.key = key;
+        }
+    }
+
     public K nonLeafKey(long position, int i) {
-        bb.position(position + relativePositionNonLeafEntry(i) + POSITION_BYTES);
-        return keySerializer.read(bb);
+        return keySerializer.read(indexCursor(position + relativePositionNonLeafEntry(i) + POSITION_BYTES));
     }
 
     public void nonLeafSetKey(long position, int i, K key) {
-        bb.position(position + relativePositionNonLeafEntry(i) + POSITION_BYTES);
-        keySerializer.write(bb, key);
+        keySerializer.write(indexCursor(position + relativePositionNonLeafEntry(i) + POSITION_BYTES), key);
     }
 
     public void nonLeafMove(long position, int mid, int length, NonLeafFile<K, V> other) {
@@ -278,33 +1029,40 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
         // of other node
         int relativeStart = relativePositionNonLeafEntry(mid);
         int size = relativePositionNonLeafEntry(mid + length + 1) - relativeStart;
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[size];
-        bb.get(bytes);
-        long newPosition = other.position() + relativePositionNonLeafEntry(0);
-        bb.position(newPosition);
-        bb.put(bytes);
+        bb.copy(position + relativeStart, other.position() + relativePositionNonLeafEntry(0), size);
         nonLeafSetNumKeys(position, mid - 1);
         nonLeafSetNumKeys(other.position(), length);
     }
 
+    public void nonLeafRemove(long position, int i) {
+        int numKeys = nonLeafNumKeys(position);
+        int relativeStart = relativePositionNonLeafEntry(i + 1);
+        int relativeEnd = relativePositionNonLeafEntry(numKeys) + POSITION_BYTES;
+        bb.copy(position + relativeStart, position + relativePositionNonLeafEntry(i), relativeEnd - relativeStart);
+        nonLeafSetNumKeys(position, numKeys - 1);
+    }
+
     public void nonLeafInsert(long position, int i, K key, NodeFile left) {
         int numKeys = nonLeafNumKeys(position);
         int relativeStart = relativePositionNonLeafEntry(i);
         int relativeEnd = relativePositionNonLeafEntry(numKeys) + POSITION_BYTES;
-        bb.position(position + relativeStart);
-        byte[] bytes = new byte[relativeEnd - relativeStart];
-        bb.get(bytes);
-        bb.position(position + relativePositionNonLeafEntry(i + 1));
-        bb.put(bytes);
-        bb.position(position + relativeStart);
-        bb.putLong(left.position());
-        keySerializer.write(bb, key);
+        bb.copy(position + relativeStart, position + relativePositionNonLeafEntry(i + 1), relativeEnd - relativeStart);
+        bb.putLong(position + relativeStart, left.position());
+        keySerializer.write(indexCursor(position + relativeStart + POSITION_BYTES), key);
         nonLeafSetNumKeys(position, numKeys + 1);
     }
 
     @Override
     public void close() throws Exception {
+        if (copyOnWrite) {
+            // no more readers so released nodes can be reused
+            freeReleasedBefore(Long.MAX_VALUE);
+        }
+        writeHeader();
+        if (flusher != null) {
+            // wait for pending commits
+            flusher.close();
+        }
         bb.close();
         values.close();
         if (onClose != null) {
@@ -314,29 +1072,174 @@ public final class FactoryFile<K, V> implements Factory<K, V> {
 
     @Override
     public void commit() {
-        bb.commit();
-        values.commit();
+        if (durability.mode() == Durability.Mode.ON_COMMIT && flusher == null) {
+            if (copyOnWrite) {
+                freeReleased();
+            }
+            writeHeader();
+            takeDirtyPages().force();
+        } else if (durability.mode() == Durability.Mode.ON_COMMIT) {
+            // wait for earlier asynchronous commits as well
+            commitAsync().join();
+        } else {
+            commitAsync();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync() {
+        if (copyOnWrite) {
+            freeReleased();
+        }
+        writeHeader();
+        Flush flush = takeDirtyPages();
+        if (durability.mode() == Durability.Mode.NONE) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (flusher == null) {
+            flusher = new Flusher(0);
+        }
+        return flusher.submit(flush);
+    }
+
+    private Flush takeDirtyPages() {
+        return bb.takeDirtyPages().add(values.takeDirtyPages());
     }
 
     @Override
     public void root(Node<K, V> node) {
-        bb.position(0);
-        bb.putLong(((NodeFile) node).position());
+        bb.putLong(0, ((NodeFile) node).position());
+        // every node written so far may now be read by other threads
+        publishedIndex = index;
+        if (copyOnWrite) {
+            reusedUnpublished.clear();
+            epoch++;
+        }
+    }
+
+    @Override
+    public boolean copyOnWrite() {
+        return copyOnWrite;
+    }
+
+    @Override
+    public boolean leafNextPointersValid() {
+        return !staleLeafNextPointers;
+    }
+
+    // records in the header that the next pointers of leaves may become stale
+    private void markLeafNextPointersStale() {
+        staleLeafNextPointers = true;
+        bb.put(HEADER_FLAGS_POSITION, (byte) (bb.get(HEADER_FLAGS_POSITION) | FLAG_STALE_LEAF_NEXT_POINTERS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Node<K, V>> T writable(T node) {
+        checkWritable();
+        long position = ((NodeFile) node).position();
+        if (!copyOnWrite || !isPublished(position)) {
+            // not reachable from the published root so can modify in place
+            return node;
+        }
+        boolean isLeaf = node instanceof Leaf;
+        int size = isLeaf ? leafBytes() : nonLeafBytes();
+        long p = allocateNode(isLeaf);
+        bb.copy(position, p, size);
+        // the copy replaces the node in the tree
+        release(node);
+        if (isLeaf) {
+            return (T) new LeafFile<K, V>(this, p);
+        } else {
+            return (T) new NonLeafFile<K, V>(this, p);
+        }
     }
 
     @Override
     public Node<K, V> loadOrCreateRoot() {
-        bb.position(0);
-        long rootPosition = bb.getLong();
+        long rootPosition = bb.getLong(0);
         if (rootPosition == 0) {
-            bb.position(0);
-            bb.putLong(POSITION_BYTES);
-            return createLeaf();
+            bb.putInt(HEADER_MAGIC_POSITION, HEADER_MAGIC);
+            bb.put(HEADER_VERSION_POSITION, (byte) formatVersion);
+            bb.put(HEADER_BYTE_ORDER_POSITION, (byte) (bb.order() == ByteOrder.BIG_ENDIAN ? 0 : 1));
+            bb.putInt(HEADER_KEY_SIZE_POSITION, keySerializer.maxSize());
+            bb.putInt(HEADER_MAX_LEAF_KEYS_POSITION, options.maxLeafKeys());
+            bb.putInt(HEADER_MAX_NON_LEAF_KEYS_POSITION, options.maxNonLeafKeys());
+            if (copyOnWrite) {
+                markLeafNextPointersStale();
+            }
+            Leaf<K, V> leaf = createLeaf();
+            bb.putLong(0, ((NodeFile) leaf).position());
+            writeHeader();
+            return leaf;
+        } else if (bb.getInt(HEADER_MAGIC_POSITION) == HEADER_MAGIC) {
+            checkHeader("key size", HEADER_KEY_SIZE_POSITION, keySerializer.maxSize());
+            checkHeader("maxLeafKeys", HEADER_MAX_LEAF_KEYS_POSITION, options.maxLeafKeys());
+            checkHeader("maxNonLeafKeys", HEADER_MAX_NON_LEAF_KEYS_POSITION, options.maxNonLeafKeys());
+            // resume appending after the existing nodes and values
+            index = bb.getLong(HEADER_NEXT_NODE_POSITION);
+            valuesIndex = bb.getLong(HEADER_NEXT_VALUE_POSITION);
+            freeLeaves = bb.getLong(HEADER_FREE_LEAF_POSITION);
+            freeLeavesCount = freeCount(freeLeaves);
+            freeNonLeaves = bb.getLong(HEADER_FREE_NON_LEAF_POSITION);
+            freeNonLeavesCount = freeCount(freeNonLeaves);
+            if (copyOnWrite) {
+                markLeafNextPointersStale();
+            } else {
+                staleLeafNextPointers = (bb.get(HEADER_FLAGS_POSITION) & FLAG_STALE_LEAF_NEXT_POINTERS) != 0;
+            }
+            return readNode(rootPosition);
         } else {
+            // written before the header was added, the tree can be read but new nodes
+            // and values would overwrite existing ones and so would the header
+            readOnly = true;
             return readNode(rootPosition);
         }
     }
 
+    private void checkHeader(String name, int headerPosition, int expected) {
+        int value = bb.getInt(headerPosition);
+        if (value != expected) {
+            throw new IllegalStateException(
+                    "existing tree has " + name + "=" + value + " but " + name + "=" + expected + " was requested");
+        }
+    }
+
+    private long freeCount(long head) {
+        return head == 0 ? 0 : bb.getLong(head + FREE_COUNT_POSITION);
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException(
+                    "the tree was written by a version without an index header and can only be read");
+        }
+    }
+
+    private void writeHeader() {
+        if (readOnly) {
+            // the header positions hold nodes
+            return;
+        }
+        bb.putLong(HEADER_NEXT_NODE_POSITION, index);
+        bb.putLong(HEADER_NEXT_VALUE_POSITION, valuesIndex);
+        bb.putLong(HEADER_FREE_LEAF_POSITION, freeLeaves);
+        bb.putLong(HEADER_FREE_NON_LEAF_POSITION, freeNonLeaves);
+    }
+
+    public LargeMappedByteBuffer indexBuffer() {
+        return bb;
+    }
+
+    public LargeMappedByteBuffer valuesBuffer() {
+        return values;
+    }
+
+    @Override
+    public NodeCursor<K, V> cursor() {
+        return new NodeCursorFile<K, V>(this);
+    }
+
     @Override
     public Options<K, V> options() {
         return options;
@@ -0,0 +1,90 @@
+package com.github.davidmoten.bplustree.internal.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer.Flush;
+
+/**
+ * Forces flushes to disk on a background thread. Flushes submitted while a
+ * force is in progress (or during the delay before a force) are combined and
+ * forced together (group commit).
+ */
+final class Flusher implements AutoCloseable {
+
+    private final long delayMs;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private static final Request STOP = new Request(null);
+
+    Flusher(long delayMs) {
+        this.delayMs = delayMs;
+        this.thread = new Thread(this::run, "bplustree-flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    CompletableFuture<Void> submit(Flush flush) {
+        Request request = new Request(flush);
+        queue.add(request);
+        return request.future;
+    }
+
+    private void run() {
+        List<Request> requests = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                requests.add(queue.take());
+                if (delayMs > 0 && requests.get(0) != STOP) {
+                    Thread.sleep(delayMs);
+                }
+            } catch (InterruptedException e) {
+                // close() never interrupts so just keep going
+            }
+            queue.drainTo(requests);
+            Flush flush = new Flush();
+            for (Request request : requests) {
+                if (request == STOP) {
+                    stop = true;
+                } else {
+                    flush.add(request.flush);
+                }
+            }
+            try {
+                flush.force();
+                for (Request request : requests) {
+                    request.future.complete(null);
+                }
+            } catch (RuntimeException e) {
+                for (Request request : requests) {
+                    request.future.completeExceptionally(e);
+                }
+            }
+            requests.clear();
+        }
+    }
+
+    /**
+     * Forces everything submitted so far then stops the background thread.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        queue.add(STOP);
+        thread.join();
+    }
+
+    private static final class Request {
+        final Flush flush;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Request(Flush flush) {
+            this.flush = flush;
+        }
+    }
+
+}
@@ -58,6 +58,16 @@ public class LeafFile<K, V> implements Leaf<K, V>, NodeFile {
         factory.leafMove(position, start, length, (LeafFile<K, V>) other);
     }
 
+    @Override
+    public void remove(int idx, int length) {
+        factory.leafRemove(position, idx, length);
+    }
+
+    @Override
+    public void insert(int idx, Leaf<K, V> other, int start, int length) {
+        factory.leafInsert(position, idx, (LeafFile<K, V>) other, start, length);
+    }
+
     @Override
     public void setNext(Leaf<K, V> sibling) {
         factory.leafSetNext(position, (LeafFile<K, V>) sibling);
@@ -68,6 +78,15 @@ public class LeafFile<K, V> implements Leaf<K, V>, NodeFile {
         return factory.leafNext(position);
     }
 
+    @Override
+    public int getLocation(K key) {
+        if (factory.searchesKeysInPlace()) {
+            return factory.getLocation(position, true, key);
+        } else {
+            return Leaf.super.getLocation(key);
+        }
+    }
+
     @Override
     public long position() {
         return position;
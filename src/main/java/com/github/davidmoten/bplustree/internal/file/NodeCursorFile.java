@@ -0,0 +1,49 @@
+package com.github.davidmoten.bplustree.internal.file;
+
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+
+/**
+ * Repositions one {@link LeafFile} and one {@link NonLeafFile} as it moves
+ * through the tree so that a descent or a scan doesn't create a node object
+ * per step.
+ */
+final class NodeCursorFile<K, V> implements NodeCursor<K, V> {
+
+    private final FactoryFile<K, V> factory;
+    private final LeafFile<K, V> leaf;
+    private final NonLeafFile<K, V> nonLeaf;
+
+    NodeCursorFile(FactoryFile<K, V> factory) {
+        this.factory = factory;
+        this.leaf = new LeafFile<K, V>(factory, 0);
+        this.nonLeaf = new NonLeafFile<K, V>(factory, 0);
+    }
+
+    @Override
+    public Node<K, V> child(NonLeaf<K, V> node, int index) {
+        // node may be this.nonLeaf so read the child position before repositioning
+        long p = factory.nonLeafChildPosition(((NodeFile) node).position(), index);
+        if (factory.isLeaf(p)) {
+            leaf.position(p);
+            return leaf;
+        } else {
+            nonLeaf.position(p);
+            return nonLeaf;
+        }
+    }
+
+    @Override
+    public Leaf<K, V> next(Leaf<K, V> node) {
+        long p = factory.leafNextLeafPosition(((NodeFile) node).position());
+        if (p == FactoryFile.POSITION_NOT_PRESENT) {
+            return null;
+        } else {
+            leaf.position(p);
+            return leaf;
+        }
+    }
+
+}
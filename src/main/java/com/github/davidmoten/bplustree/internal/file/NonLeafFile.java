@@ -66,6 +66,20 @@ public final class NonLeafFile<K, V> implements NonLeaf<K, V>, NodeFile {
         factory.nonLeafInsert(position, idx, key, (NodeFile) left);
     }
 
+    @Override
+    public void remove(int idx) {
+        factory.nonLeafRemove(position, idx);
+    }
+
+    @Override
+    public int getLocation(K key) {
+        if (factory.searchesKeysInPlace()) {
+            return factory.getLocation(position, false, key);
+        } else {
+            return NonLeaf.super.getLocation(key);
+        }
+    }
+
     @Override
     public long position() {
         return position;
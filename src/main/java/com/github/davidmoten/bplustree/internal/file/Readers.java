@@ -0,0 +1,107 @@
+package com.github.davidmoten.bplustree.internal.file;
+
+import java.util.Arrays;
+
+/**
+ * Counts the searches in progress by the epoch they started in. Searches are
+ * registered in one of a fixed number of stripes picked by the id of the thread
+ * so that searches on different threads rarely take the same lock, and counts
+ * are kept in primitive arrays so registering a search allocates nothing.
+ */
+final class Readers {
+
+    // a power of two
+    private static final int STRIPES = 32;
+    private static final int STRIPE_BITS = Integer.numberOfTrailingZeros(STRIPES);
+
+    private final Stripe[] stripes;
+
+    Readers() {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Registers a search that started in the given epoch.
+     * 
+     * @param epoch epoch the search started in
+     * @return value to pass to {@link #end(long)}
+     */
+    long begin(long epoch) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].add(epoch);
+        return (epoch << STRIPE_BITS) | stripe;
+    }
+
+    /**
+     * Unregisters a search. May be called from another thread than the one that
+     * called {@link #begin(long)}.
+     * 
+     * @param read value returned by {@link #begin(long)}
+     */
+    void end(long read) {
+        stripes[(int) (read & (STRIPES - 1))].remove(read >>> STRIPE_BITS);
+    }
+
+    /**
+     * Returns the earliest epoch of the searches in progress, or {@code epoch} if
+     * it is earlier.
+     * 
+     * @param epoch the current epoch
+     * @return the earliest epoch
+     */
+    long oldest(long epoch) {
+        long oldest = epoch;
+        for (Stripe stripe : stripes) {
+            oldest = stripe.oldest(oldest);
+        }
+        return oldest;
+    }
+
+    // counts of searches by epoch, unordered
+    private static final class Stripe {
+
+        private long[] epochs = new long[4];
+        private int[] counts = new int[4];
+        private int size;
+
+        synchronized void add(long epoch) {
+            for (int i = 0; i < size; i++) {
+                if (epochs[i] == epoch) {
+                    counts[i]++;
+                    return;
+                }
+            }
+            if (size == epochs.length) {
+                epochs = Arrays.copyOf(epochs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            epochs[size] = epoch;
+            counts[size] = 1;
+            size++;
+        }
+
+        synchronized void remove(long epoch) {
+            for (int i = 0; i < size; i++) {
+                if (epochs[i] == epoch) {
+                    if (--counts[i] == 0) {
+                        size--;
+                        epochs[i] = epochs[size];
+                        counts[i] = counts[size];
+                    }
+                    return;
+                }
+            }
+        }
+
+        synchronized long oldest(long oldest) {
+            for (int i = 0; i < size; i++) {
+                oldest = Math.min(oldest, epochs[i]);
+            }
+            return oldest;
+        }
+    }
+
+}
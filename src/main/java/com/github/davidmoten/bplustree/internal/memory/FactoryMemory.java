@@ -1,5 +1,7 @@
 package com.github.davidmoten.bplustree.internal.memory;
 
+import java.util.Comparator;
+
 import com.github.davidmoten.bplustree.internal.Factory;
 import com.github.davidmoten.bplustree.internal.Leaf;
 import com.github.davidmoten.bplustree.internal.Node;
@@ -8,20 +10,58 @@ import com.github.davidmoten.bplustree.internal.Options;
 
 public final class FactoryMemory<K, V> implements Factory<K, V> {
 
+    private static final int KEYS_OBJECT = 0;
+    private static final int KEYS_LONG = 1;
+    private static final int KEYS_INT = 2;
+
     private final Options<K, V> options;
+    private final int keys;
+    private final boolean naturalOrder;
 
     public FactoryMemory(Options<K, V> options) {
+        this(options, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param options options
+     * @param keyType class of the keys or null if not known. If {@code Long},
+     *                {@code long}, {@code Integer} or {@code int} then nodes store
+     *                keys in primitive arrays.
+     */
+    public FactoryMemory(Options<K, V> options, Class<?> keyType) {
         this.options = options;
+        if (keyType == Long.class || keyType == long.class) {
+            this.keys = KEYS_LONG;
+        } else if (keyType == Integer.class || keyType == int.class) {
+            this.keys = KEYS_INT;
+        } else {
+            this.keys = KEYS_OBJECT;
+        }
+        this.naturalOrder = options.comparator() == Comparator.naturalOrder();
     }
 
     @Override
     public Leaf<K, V> createLeaf() {
-        return new LeafMemory<K, V>(options, this);
+        if (keys == KEYS_LONG) {
+            return new LeafMemoryLong<K, V>(options, this, naturalOrder);
+        } else if (keys == KEYS_INT) {
+            return new LeafMemoryInt<K, V>(options, this, naturalOrder);
+        } else {
+            return new LeafMemory<K, V>(options, this);
+        }
     }
 
     @Override
     public NonLeaf<K, V> createNonLeaf() {
-        return new NonLeafMemory<K, V>(options, this);
+        if (keys == KEYS_LONG) {
+            return new NonLeafMemoryLong<K, V>(options, this, naturalOrder);
+        } else if (keys == KEYS_INT) {
+            return new NonLeafMemoryInt<K, V>(options, this, naturalOrder);
+        } else {
+            return new NonLeafMemory<K, V>(options, this);
+        }
     }
 
     @Override
@@ -44,6 +84,16 @@ public final class FactoryMemory<K, V> implements Factory<K, V> {
         return createLeaf();
     }
 
+    @Override
+    public boolean copyOnWrite() {
+        return false;
+    }
+
+    @Override
+    public <T extends Node<K, V>> T writable(T node) {
+        return node;
+    }
+
     @Override
     public Options<K, V> options() {
         return options;
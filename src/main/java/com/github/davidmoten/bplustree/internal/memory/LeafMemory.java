@@ -65,6 +65,27 @@ public final class LeafMemory<K, V> implements Leaf<K, V> {
         numKeys++;
     }
 
+    @Override
+    public void remove(int idx, int length) {
+        int end = idx + length;
+        System.arraycopy(keys, end, keys, idx, numKeys - end);
+        System.arraycopy(values, end, values, idx, numKeys - end);
+        // release the removed keys and values for garbage collection
+        Arrays.fill(keys, numKeys - length, numKeys, null);
+        Arrays.fill(values, numKeys - length, numKeys, null);
+        numKeys -= length;
+    }
+
+    @Override
+    public void insert(int idx, Leaf<K, V> other, int start, int length) {
+        LeafMemory<K, V> o = (LeafMemory<K, V>) other;
+        System.arraycopy(keys, idx, keys, idx + length, numKeys - idx);
+        System.arraycopy(values, idx, values, idx + length, numKeys - idx);
+        System.arraycopy(o.keys, start, keys, idx, length);
+        System.arraycopy(o.values, start, values, idx, length);
+        numKeys += length;
+    }
+
     @Override
     public void setNext(Leaf<K, V> next) {
         this.next = next;
@@ -0,0 +1,138 @@
+package com.github.davidmoten.bplustree.internal.memory;
+
+import java.util.Arrays;
+
+import com.github.davidmoten.bplustree.internal.Factory;
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.Options;
+
+/**
+ * Leaf that stores {@code Long} keys in a {@code long[]}. If the keys are in
+ * natural order then searches compare the primitive keys.
+ */
+final class LeafMemoryLong<K, V> implements Leaf<K, V> {
+
+    private final Options<K, V> options;
+    private final Factory<K, V> factory;
+    private final boolean naturalOrder;
+    private final long[] keys;
+    private final V[] values;
+    private int numKeys;
+    private Leaf<K, V> next;
+
+    @SuppressWarnings("unchecked")
+    LeafMemoryLong(Options<K, V> options, Factory<K, V> factory, boolean naturalOrder) {
+        this.options = options;
+        this.factory = factory;
+        this.naturalOrder = naturalOrder;
+        keys = new long[options.maxLeafKeys()];
+        values = (V[]) new Object[options.maxLeafKeys()];
+    }
+
+    @Override
+    public V value(int index) {
+        return values[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K key(int index) {
+        return (K) (Long) keys[index];
+    }
+
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    @Override
+    public void move(int start, int length, Leaf<K, V> other) {
+        other.setNumKeys(length);
+        System.arraycopy(keys, start, ((LeafMemoryLong<K, V>) other).keys, 0, length);
+        System.arraycopy(values, start, ((LeafMemoryLong<K, V>) other).values, 0, length);
+        numKeys = start;
+    }
+
+    @Override
+    public void setNumKeys(int numKeys) {
+        this.numKeys = numKeys;
+    }
+
+    @Override
+    public void setValue(int idx, V value) {
+        values[idx] = value;
+    }
+
+    @Override
+    public void insert(int idx, K key, V value) {
+        System.arraycopy(keys, idx, keys, idx + 1, numKeys - idx);
+        System.arraycopy(values, idx, values, idx + 1, numKeys - idx);
+        keys[idx] = (Long) key;
+        values[idx] = value;
+        numKeys++;
+    }
+
+    @Override
+    public void remove(int idx, int length) {
+        int end = idx + length;
+        System.arraycopy(keys, end, keys, idx, numKeys - end);
+        System.arraycopy(values, end, values, idx, numKeys - end);
+        // release the removed values for garbage collection
+        Arrays.fill(values, numKeys - length, numKeys, null);
+        numKeys -= length;
+    }
+
+    @Override
+    public void insert(int idx, Leaf<K, V> other, int start, int length) {
+        LeafMemoryLong<K, V> o = (LeafMemoryLong<K, V>) other;
+        System.arraycopy(keys, idx, keys, idx + length, numKeys - idx);
+        System.arraycopy(values, idx, values, idx + length, numKeys - idx);
+        System.arraycopy(o.keys, start, keys, idx, length);
+        System.arraycopy(o.values, start, values, idx, length);
+        numKeys += length;
+    }
+
+    @Override
+    public void setNext(Leaf<K, V> next) {
+        this.next = next;
+    }
+
+    @Override
+    public Leaf<K, V> next() {
+        return next;
+    }
+
+    @Override
+    public Options<K, V> options() {
+        return options;
+    }
+
+    @Override
+    public Factory<K, V> factory() {
+        return factory;
+    }
+
+    @Override
+    public int getLocation(K key) {
+        if (naturalOrder) {
+            return PrimitiveKeys.getLocation(keys, numKeys, (Long) key, true);
+        } else {
+            return Leaf.super.getLocation(key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("LeafMemoryLong [");
+        builder.append("numKeys=");
+        builder.append(numKeys);
+        builder.append(", keys=");
+        builder.append(Arrays.toString(keys));
+        builder.append(", values=");
+        builder.append(Arrays.toString(values));
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -20,7 +20,7 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
         this.options = options;
         this.factory = factory;
         this.children = new Node[options.maxNonLeafKeys() + 1];
-        this.keys = (K[]) new Object[options.maxLeafKeys()];
+        this.keys = (K[]) new Object[options.maxNonLeafKeys()];
     }
 
     @Override
@@ -71,6 +71,16 @@ public final class NonLeafMemory<K, V> implements NonLeaf<K, V> {
         numKeys+=1;
     }
 
+    @Override
+    public void remove(int idx) {
+        System.arraycopy(keys, idx + 1, keys, idx, numKeys - idx - 1);
+        System.arraycopy(children, idx + 1, children, idx, numKeys - idx);
+        // release the removed references for garbage collection
+        keys[numKeys - 1] = null;
+        children[numKeys] = null;
+        numKeys--;
+    }
+
     @Override
     public Options<K, V> options() {
         return options;
@@ -0,0 +1,119 @@
+package com.github.davidmoten.bplustree.internal.memory;
+
+import java.util.Arrays;
+
+import com.github.davidmoten.bplustree.internal.Factory;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+import com.github.davidmoten.bplustree.internal.Options;
+
+/**
+ * Non-leaf that stores {@code Integer} keys in a {@code int[]}. If the keys are
+ * in natural order then searches compare the primitive keys.
+ */
+final class NonLeafMemoryInt<K, V> implements NonLeaf<K, V> {
+
+    private final Options<K, V> options;
+    private final Factory<K, V> factory;
+    private final boolean naturalOrder;
+    private final Node<K, V>[] children;
+    private final int[] keys;
+    private int numKeys; // number of keys
+
+    @SuppressWarnings("unchecked")
+    NonLeafMemoryInt(Options<K, V> options, Factory<K, V> factory, boolean naturalOrder) {
+        this.options = options;
+        this.factory = factory;
+        this.naturalOrder = naturalOrder;
+        this.children = new Node[options.maxNonLeafKeys() + 1];
+        this.keys = new int[options.maxNonLeafKeys()];
+    }
+
+    @Override
+    public void setNumKeys(int numKeys) {
+        this.numKeys = numKeys;
+    }
+
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    @Override
+    public void setChild(int index, Node<K, V> node) {
+        children[index] = node;
+    }
+
+    @Override
+    public Node<K, V> child(int index) {
+        return children[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K key(int index) {
+        return (K) (Integer) keys[index];
+    }
+
+    @Override
+    public void setKey(int index, K key) {
+        keys[index] = (Integer) key;
+    }
+
+    @Override
+    public void move(int mid, NonLeaf<K, V> other, int length) {
+        other.setNumKeys(length);
+        System.arraycopy(this.keys, mid, ((NonLeafMemoryInt<K, V>) other).keys, 0, length);
+        System.arraycopy(this.children, mid, ((NonLeafMemoryInt<K, V>) other).children, 0, length + 1);
+        numKeys = mid - 1;// the middle key moves up to the parent
+    }
+
+    @Override
+    public void insert(int idx, K key, Node<K, V> node) {
+        System.arraycopy(keys, idx, keys, idx + 1, numKeys - idx);
+        System.arraycopy(children, idx, children, idx + 1, numKeys - idx + 1);
+        children[idx] = node;
+        keys[idx] = (Integer) key;
+        numKeys += 1;
+    }
+
+    @Override
+    public void remove(int idx) {
+        System.arraycopy(keys, idx + 1, keys, idx, numKeys - idx - 1);
+        System.arraycopy(children, idx + 1, children, idx, numKeys - idx);
+        // release the removed references for garbage collection
+        children[numKeys] = null;
+        numKeys--;
+    }
+
+    @Override
+    public Options<K, V> options() {
+        return options;
+    }
+
+    @Override
+    public Factory<K, V> factory() {
+        return factory;
+    }
+
+    @Override
+    public int getLocation(K key) {
+        if (naturalOrder) {
+            return PrimitiveKeys.getLocation(keys, numKeys, (Integer) key, false);
+        } else {
+            return NonLeaf.super.getLocation(key);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("NonLeafMemoryInt [");
+        builder.append("numKeys=" + numKeys());
+        builder.append(", keys=");
+        builder.append(Arrays.toString(keys));
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.github.davidmoten.bplustree.internal.memory;
+
+/**
+ * Binary searches over the primitive key arrays of nodes in natural order
+ * (same results as {@code Util.getLocation} with a natural order comparator).
+ */
+final class PrimitiveKeys {
+
+    private PrimitiveKeys() {
+        // prevent instantiation
+    }
+
+    static int getLocation(long[] keys, int numKeys, long key, boolean acceptEquals) {
+        int start = 0;
+        int finish = numKeys;
+        // find the first index whose key is > key (or >= key if acceptEquals)
+        while (start < finish) {
+            int mid = (start + finish) >>> 1;
+            long k = keys[mid];
+            if (key < k || (acceptEquals && key == k)) {
+                finish = mid;
+            } else {
+                start = mid + 1;
+            }
+        }
+        return start;
+    }
+
+    static int getLocation(int[] keys, int numKeys, int key, boolean acceptEquals) {
+        int start = 0;
+        int finish = numKeys;
+        // find the first index whose key is > key (or >= key if acceptEquals)
+        while (start < finish) {
+            int mid = (start + finish) >>> 1;
+            int k = keys[mid];
+            if (key < k || (acceptEquals && key == k)) {
+                finish = mid;
+            } else {
+                start = mid + 1;
+            }
+        }
+        return start;
+    }
+
+}
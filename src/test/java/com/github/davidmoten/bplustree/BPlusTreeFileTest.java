@@ -3,18 +3,38 @@ package com.github.davidmoten.bplustree;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import org.davidmoten.kool.Stream;
 import org.junit.Test;
 
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+import com.github.davidmoten.bplustree.internal.file.FactoryFile;
 import com.github.davidmoten.bplustree.internal.file.LeafFile;
 import com.github.davidmoten.guavamini.Lists;
 
@@ -198,6 +218,785 @@ public final class BPlusTreeFileTest {
         }
     }
 
+    @Test
+    public void testBulkLoadFromBuilder() throws Exception {
+        int n = 10000;
+        try (BPlusTree<Integer, Integer> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .maxKeys(8) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .bulkLoad(IntStream.range(0, n).mapToObj(x -> Entry.create(x, x * 10)).iterator()) //
+                .naturalOrder()) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(i * 10, (int) tree.findFirst(i));
+            }
+            assertEquals(n, Stream.from(tree.findAll()).toList().get().size());
+        }
+    }
+
+    @Test
+    public void testCacheRightmostPath() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 5; maxKeys++) {
+            try (BPlusTree<Integer, Integer> tree = BPlusTree //
+                    .file() //
+                    .directory(Testing.newDirectory()) //
+                    .clearDirectory() //
+                    .maxKeys(maxKeys) //
+                    .cacheRightmostPath() //
+                    .keySerializer(Serializer.INTEGER) //
+                    .valueSerializer(Serializer.INTEGER) //
+                    .naturalOrder()) {
+                BPlusTreeTest.checkAppendsWithOccasionalOutOfOrderInserts(tree);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReadersSingleThreaded() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders()) {
+            List<Integer> list = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                list.add(i);
+            }
+            Collections.shuffle(list, new Random(1));
+            for (int i : list) {
+                tree.insert(i, i);
+            }
+            Collections.sort(list);
+            assertEquals(list, Stream.from(tree.findAll()).toList().get());
+            assertEquals(list.subList(100, 200), Stream.from(tree.find(100, 200)).toList().get());
+            for (int i : list) {
+                assertEquals(i, (int) tree.findFirst(i));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReadersWhileWriting() throws Exception {
+        int n = 20000;
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders()) {
+            AtomicBoolean finished = new AtomicBoolean();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        int lastCount = 0;
+                        while (!finished.get()) {
+                            int previous = -1;
+                            int count = 0;
+                            for (Entry<Integer, Integer> entry : tree.findEntries(0, n)) {
+                                if (entry.key() <= previous || !entry.key().equals(entry.value())) {
+                                    throw new AssertionError("inconsistent read at " + entry.key());
+                                }
+                                previous = entry.key();
+                                count++;
+                            }
+                            if (count < lastCount) {
+                                throw new AssertionError("entries disappeared");
+                            }
+                            lastCount = count;
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                });
+                thread.start();
+                readers.add(thread);
+            }
+            List<Integer> list = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                list.add(i);
+            }
+            Collections.shuffle(list, new Random(2));
+            for (int i : list) {
+                tree.insert(i, i);
+            }
+            finished.set(true);
+            for (Thread thread : readers) {
+                thread.join();
+            }
+            assertNull(error.get());
+            assertEquals(n, Stream.from(tree.findAll()).toList().get().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConcurrentReadersAndCacheRightmostPathNotAllowed() {
+        BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .concurrentReaders() //
+                .cacheRightmostPath() //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConcurrentReadersAndMaxMappedSegmentsNotAllowed() {
+        BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .concurrentReaders() //
+                .maxMappedSegments(10) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    @Test
+    public void testMaxMappedSegments() throws Exception {
+        List<Integer> list = IntStream.range(0, 2000).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(321));
+        try (BPlusTree<Integer, Integer> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .maxKeys(4) //
+                .segmentSizeBytes(1024) //
+                .maxMappedSegments(3) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            for (int i : list) {
+                tree.insert(i, i);
+            }
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(i, (int) tree.findFirst(i));
+            }
+            LargeMappedByteBuffer bb = ((FactoryFile<Integer, Integer>) tree.factory()).indexBuffer();
+            assertTrue(bb.unmapCount() > 0);
+            assertEquals(bb.mapCount() - 3, bb.unmapCount());
+        }
+    }
+
+    @Test
+    public void testPrepareNextSegment() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .maxKeys(4) //
+                .segmentSizeBytes(1024) //
+                .prepareNextSegment(0.5, true) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            for (int i = 0; i < 2000; i++) {
+                tree.insert(i, i);
+            }
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(i, (int) tree.findFirst(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCommitAsync() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = createDurable(Durability.ON_COMMIT)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                tree.insert(i, i);
+                if (i % 100 == 0) {
+                    futures.add(tree.commitAsync());
+                }
+            }
+            tree.commit();
+            // a synchronous commit waits for earlier asynchronous commits
+            for (CompletableFuture<Void> future : futures) {
+                assertTrue(future.isDone());
+                future.get();
+            }
+            assertEquals(999, (int) tree.findFirst(999));
+        }
+    }
+
+    @Test
+    public void testDurabilityPeriodic() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = createDurable(Durability.periodic(10, TimeUnit.MILLISECONDS))) {
+            for (int i = 0; i < 1000; i++) {
+                tree.insert(i, i);
+            }
+            tree.commit();
+            tree.insert(1000, 1000);
+            tree.commitAsync().get(10, TimeUnit.SECONDS);
+            assertEquals(1000, (int) tree.findFirst(1000));
+        }
+    }
+
+    @Test
+    public void testDurabilityNone() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = createDurable(Durability.NONE)) {
+            tree.insert(1, 1);
+            tree.commit();
+            assertTrue(tree.commitAsync().isDone());
+            assertEquals(1, (int) tree.findFirst(1));
+        }
+    }
+
+    @Test
+    public void testReopenResumesAppending() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+            for (int i = 0; i < 1000; i++) {
+                tree.insert(i, i);
+            }
+        }
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+            for (int i = 1000; i < 2000; i++) {
+                tree.insert(i, i);
+            }
+            tree.commit();
+        }
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+            List<Integer> list = new ArrayList<>();
+            tree.findAll().forEach(list::add);
+            assertEquals(IntStream.range(0, 2000).boxed().collect(Collectors.toList()), list);
+        }
+    }
+
+    @Test
+    public void testDeletedNodesAreReusedAfterReopen() throws Exception {
+        for (int formatVersion = 1; formatVersion <= 3; formatVersion++) {
+            File directory = Testing.newDirectory();
+            long freeLeaves;
+            long freeNonLeaves;
+            long extent;
+            try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4, formatVersion)) {
+                for (int i = 0; i < 1000; i++) {
+                    tree.insert(i, i);
+                }
+                assertEquals(0, tree.storageStats().freeLeaves());
+                long used = tree.storageStats().usedBytes();
+                assertEquals(900, tree.deleteRange(0, 900));
+                freeLeaves = tree.storageStats().freeLeaves();
+                freeNonLeaves = tree.storageStats().freeNonLeaves();
+                assertTrue(freeLeaves > 0);
+                assertTrue(freeNonLeaves > 0);
+                assertEquals(used, extent(tree));
+                extent = extent(tree);
+            }
+            try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4, formatVersion)) {
+                assertEquals(freeLeaves, tree.storageStats().freeLeaves());
+                assertEquals(freeNonLeaves, tree.storageStats().freeNonLeaves());
+                for (int i = 0; i < 500; i++) {
+                    tree.insert(i, i);
+                }
+                // the new nodes fit in the freed nodes
+                assertTrue(tree.storageStats().freeLeaves() < freeLeaves);
+                assertEquals(extent, extent(tree));
+                List<Integer> expected = IntStream.concat(IntStream.range(0, 500), IntStream.range(900, 1000))
+                        .boxed().collect(Collectors.toList());
+                assertEquals(expected, Stream.from(tree.findAll()).toList().get());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStorageStatsOfMemoryTreeThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.memory().maxKeys(4).naturalOrder()) {
+            tree.storageStats();
+        }
+    }
+
+    @Test
+    public void testNodesCopiedForConcurrentReadersAreFreedOnClose() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders(directory)) {
+            for (int i = 0; i < 100; i++) {
+                tree.insert(i, i);
+            }
+        }
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders(directory)) {
+            StorageStats stats = tree.storageStats();
+            long free = stats.freeLeaves() + stats.freeNonLeaves();
+            assertTrue(free > 0);
+            long extent = extent(tree);
+            for (int i = 100; i < 110; i++) {
+                tree.insert(i, i);
+            }
+            assertEquals(extent, extent(tree));
+            assertEquals(IntStream.range(0, 110).boxed().collect(Collectors.toList()), Stream.from(tree.findAll()).toList().get());
+        }
+    }
+
+    @Test
+    public void testNodesCopiedForConcurrentReadersAreReusedAfterCommit() throws Exception {
+        List<Integer> list = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(5));
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders()) {
+            long[] extents = new long[5];
+            for (int round = 0; round < extents.length; round++) {
+                for (int i : list) {
+                    tree.insert(i, i);
+                }
+                tree.commit();
+                assertTrue(tree.storageStats().freeLeaves() > 0);
+                assertEquals(500, tree.deleteRange(0, 500));
+                tree.commit();
+                extents[round] = extent(tree);
+            }
+            // later rounds fit in the nodes freed by earlier rounds
+            for (int round = 2; round < extents.length; round++) {
+                assertEquals(extents[1], extents[round]);
+            }
+        }
+    }
+
+    @Test
+    public void testClosedIteratorsDoNotHoldBackReuse() throws Exception {
+        List<Integer> list = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(5));
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders()) {
+            long[] extents = new long[5];
+            for (int round = 0; round < extents.length; round++) {
+                for (int i : list) {
+                    tree.insert(i, i);
+                }
+                tree.commit();
+                // scans left before their end
+                try (CloseableIterator<Integer> it = tree.findAll().iterator()) {
+                    assertEquals(0, (int) it.next());
+                }
+                try (CloseableIterator<Integer> it = tree.find(100, 200).iterator()) {
+                    assertEquals(100, (int) it.next());
+                }
+                assertEquals(500, tree.deleteRange(0, 500));
+                tree.commit();
+                extents[round] = extent(tree);
+            }
+            for (int round = 2; round < extents.length; round++) {
+                assertEquals(extents[1], extents[round]);
+            }
+        }
+    }
+
+    @Test
+    public void testNodesReadByIteratorInProgressAreNotReused() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders()) {
+            for (int i = 0; i < 100; i++) {
+                tree.insert(i, i);
+            }
+            tree.commit();
+            Iterator<Integer> it = tree.findAll().iterator();
+            assertEquals(0, (int) it.next());
+            Iterator<Integer> it2 = tree.find(50, 60).iterator();
+            for (int round = 0; round < 3; round++) {
+                assertEquals(100, tree.deleteRange(0, 100));
+                tree.commit();
+                for (int i = 0; i < 100; i++) {
+                    tree.insert(i, i + 1000);
+                }
+                tree.commit();
+            }
+            // the iterators still read the tree as it was when they started
+            assertEquals(IntStream.range(1, 100).boxed().collect(Collectors.toList()),
+                    Stream.from(() -> it).toList().get());
+            assertEquals(IntStream.range(50, 60).boxed().collect(Collectors.toList()),
+                    Stream.from(() -> it2).toList().get());
+        }
+    }
+
+    @Test
+    public void testReopenWithoutConcurrentReadersDoesNotFollowStaleNextPointers() throws Exception {
+        File directory = Testing.newDirectory();
+        List<Integer> list = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(123));
+        try (BPlusTree<Integer, Integer> tree = createConcurrentReaders(directory)) {
+            for (int i : list) {
+                tree.insert(i, i);
+            }
+        }
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4, 1, 64 * 1024)) {
+            assertFalse(tree.factory().leafNextPointersValid());
+            assertEquals(IntStream.range(0, 1000).boxed().collect(Collectors.toList()),
+                    Stream.from(tree.findAll()).toList().get());
+            assertEquals(IntStream.range(100, 200).boxed().collect(Collectors.toList()),
+                    Stream.from(tree.find(100, 200)).toList().get());
+        }
+    }
+
+    @Test
+    public void testTreeWithoutHeaderIsReadOnlyAndUnchangedByClose() throws Exception {
+        File directory = Testing.newDirectory();
+        writeTreeWithoutHeader(directory);
+        for (int i = 0; i < 2; i++) {
+            try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+                assertEquals(Arrays.asList(10, 20, 30), Stream.from(tree.findAll()).toList().get());
+                assertEquals(20, (int) tree.findFirst(2));
+                try {
+                    tree.insert(4, 40);
+                    org.junit.Assert.fail();
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+                tree.commit();
+            }
+        }
+    }
+
+    @Test
+    public void testTreeWithoutHeaderIsReadAsFormatVersion1() throws Exception {
+        for (int formatVersion = 2; formatVersion <= 3; formatVersion++) {
+            File directory = Testing.newDirectory();
+            writeTreeWithoutHeader(directory);
+            try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4, formatVersion)) {
+                FactoryFile<Integer, Integer> factory = (FactoryFile<Integer, Integer>) tree.factory();
+                assertEquals(FactoryFile.FORMAT_VERSION_1, factory.formatVersion());
+                assertEquals(ByteOrder.BIG_ENDIAN, factory.indexBuffer().order());
+                assertEquals(Arrays.asList(10, 20, 30), Stream.from(tree.findAll()).toList().get());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReopenWithDifferentMaxKeysThrows() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+            tree.insert(1, 1);
+        }
+        createInDirectory(directory, 5);
+    }
+
+    @Test
+    public void testFormatVersion2() throws Exception {
+        File directory = Testing.newDirectory();
+        List<Integer> list = IntStream.range(0, 2000).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(5));
+        try (BPlusTree<Short, Integer> tree = createFormatVersion2(directory)) {
+            for (int i : list) {
+                tree.insert((short) i, i);
+            }
+        }
+        // reopen without asking for version 2
+        try (BPlusTree<Short, Integer> tree = BPlusTree //
+                .file() //
+                .directory(directory) //
+                .maxKeys(5) //
+                .segmentSizeBytes(1000) //
+                .keySerializer(Serializer.SHORT) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            assertEquals(FactoryFile.FORMAT_VERSION_2,
+                    ((FactoryFile<Short, Integer>) tree.factory()).formatVersion());
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(i, (int) tree.findFirst((short) i));
+            }
+            tree.insert((short) 2000, 2000);
+            List<Integer> values = new ArrayList<>();
+            tree.findAll().forEach(values::add);
+            assertEquals(IntStream.range(0, 2001).boxed().collect(Collectors.toList()), values);
+        }
+    }
+
+    @Test
+    public void testFormatVersion1IsReadAsVersion1() throws Exception {
+        File directory = Testing.newDirectory();
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4)) {
+            tree.insert(1, 1);
+        }
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 4, 2)) {
+            assertEquals(FactoryFile.FORMAT_VERSION_1,
+                    ((FactoryFile<Integer, Integer>) tree.factory()).formatVersion());
+            assertEquals(1, (int) tree.findFirst(1));
+        }
+    }
+
+    @Test
+    public void testFormatVersion3() throws Exception {
+        File directory = Testing.newDirectory();
+        List<Integer> list = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(7));
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 5, 3);
+                BPlusTree<Integer, Integer> expected = createInDirectory(Testing.newDirectory(), 5, 1)) {
+            for (int i : list) {
+                // duplicate keys
+                tree.insert(i, i);
+                tree.insert(i, -i);
+                expected.insert(i, i);
+                expected.insert(i, -i);
+            }
+            List<Integer> values = new ArrayList<>();
+            tree.findAll().forEach(values::add);
+            List<Integer> expectedValues = new ArrayList<>();
+            expected.findAll().forEach(expectedValues::add);
+            assertEquals(expectedValues, values);
+        }
+        // reopen asking for version 1
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 5, 1)) {
+            assertEquals(FactoryFile.FORMAT_VERSION_3,
+                    ((FactoryFile<Integer, Integer>) tree.factory()).formatVersion());
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(i, Math.abs((int) tree.findFirst(i)));
+            }
+            tree.insert(1000, 1000);
+            List<Integer> values = new ArrayList<>();
+            tree.find(999, 1001).forEach(values::add);
+            assertEquals(3, values.size());
+            assertEquals(1000, (int) values.get(2));
+        }
+    }
+
+    @Test
+    public void testMoreThan255KeysPerNode() throws Exception {
+        File directory = Testing.newDirectory();
+        List<Integer> list = IntStream.range(0, 3000).boxed().collect(Collectors.toList());
+        Collections.shuffle(list, new Random(3));
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 1000, 2, 64 * 1024)) {
+            for (int i : list) {
+                tree.insert(i, i);
+            }
+        }
+        try (BPlusTree<Integer, Integer> tree = createInDirectory(directory, 1000, 2, 64 * 1024)) {
+            List<Integer> values = new ArrayList<>();
+            tree.findAll().forEach(values::add);
+            assertEquals(IntStream.range(0, 3000).boxed().collect(Collectors.toList()), values);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoreThan255KeysPerNodeNotSupportedByFormatVersion1() {
+        createInDirectory(Testing.newDirectory(), 256, 1);
+    }
+
+    @Test
+    public void testNodeSizeBytes() throws Exception {
+        assertEquals(1023, FactoryFile.maxLeafKeys(16 * 1024, 8, FactoryFile.FORMAT_VERSION_2));
+        assertEquals(1023, FactoryFile.maxNonLeafKeys(16 * 1024, 8, FactoryFile.FORMAT_VERSION_2));
+        assertEquals(4, FactoryFile.maxLeafKeys(58, 4, FactoryFile.FORMAT_VERSION_1));
+        try (BPlusTree<Long, Long> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .nodeSizeBytes(16 * 1024) //
+                .formatVersion(3) //
+                .keySerializer(Serializer.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder()) {
+            for (long i = 0; i < 5000; i++) {
+                tree.insert(i, i);
+            }
+            assertEquals(4999L, (long) tree.findFirst(4999L));
+            // 1023 keys per node so a root and one level of leaves
+            assertTrue(tree.root() instanceof NonLeaf);
+            assertTrue(((NonLeaf<Long, Long>) tree.root()).child(0) instanceof Leaf);
+        }
+    }
+
+    @Test
+    public void testKeyCodecSearchesMatchSerializerSearches() throws Exception {
+        List<Long> keys = new ArrayList<>();
+        Random r = new Random(11);
+        for (int i = 0; i < 3000; i++) {
+            // small range so that there are duplicates
+            keys.add((long) r.nextInt(2000) - 1000);
+        }
+        for (int formatVersion = 1; formatVersion <= 3; formatVersion++) {
+            try (BPlusTree<Long, Long> expected = createLongKeys(Serializer.LONG, formatVersion);
+                    BPlusTree<Long, Long> tree = createLongKeys(KeyCodec.LONG, formatVersion)) {
+                for (long key : keys) {
+                    expected.insert(key, key * 10);
+                    tree.insert(key, key * 10);
+                }
+                for (long key = -1010; key <= 1010; key += 7) {
+                    assertEquals(expected.findFirst(key), tree.findFirst(key));
+                    assertEquals(Stream.from(expected.find(key, key + 13)).toList().get(),
+                            Stream.from(tree.find(key, key + 13)).toList().get());
+                }
+                assertEquals(Stream.from(expected.findAll()).toList().get(),
+                        Stream.from(tree.findAll()).toList().get());
+            }
+        }
+    }
+
+    @Test
+    public void testKeyCodecWithReverseComparatorSearchesInComparatorOrder() throws Exception {
+        try (BPlusTree<Long, Long> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .maxKeys(4) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(KeyCodec.LONG) //
+                .valueSerializer(Serializer.LONG) //
+                .comparator(Comparator.<Long>reverseOrder())) {
+            List<Long> keys = LongStream.range(0, 200).boxed().collect(Collectors.toList());
+            Collections.shuffle(keys, new Random(7));
+            for (long key : keys) {
+                tree.insert(key, key * 10);
+            }
+            for (long key = 0; key < 200; key++) {
+                assertEquals(key * 10, (long) tree.findFirst(key));
+            }
+            assertEquals(Arrays.asList(1000L, 990L, 980L), Stream.from(tree.find(100L, 97L)).toList().get());
+            assertEquals(LongStream.range(0, 200).map(x -> (199 - x) * 10).boxed().collect(Collectors.toList()),
+                    Stream.from(tree.findAll()).toList().get());
+        }
+    }
+
+    @Test
+    public void testLongBPlusTreeMatchesBoxedTree() throws Exception {
+        Random r = new Random(123);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add((long) r.nextInt(2001) - 1000);
+        }
+        keys.add(Long.MIN_VALUE);
+        keys.add(Long.MAX_VALUE);
+        try (BPlusTree<Long, Long> expected = createLongKeys(Serializer.LONG, FactoryFile.FORMAT_VERSION_2);
+                LongBPlusTree<Long> tree = BPlusTree //
+                        .file() //
+                        .directory(Testing.newDirectory()) //
+                        .maxKeys(6) //
+                        .segmentSizeBytes(4096) //
+                        .longKeys(Serializer.LONG)) {
+            for (int i = 0; i < keys.size(); i++) {
+                long key = keys.get(i);
+                expected.insert(key, (long) i);
+                tree.insert(key, (long) i);
+            }
+            for (long key = -1010; key <= 1010; key += 7) {
+                assertEquals(expected.findFirst(key), tree.findFirst(key));
+                assertEquals(Stream.from(expected.find(key)).toList().get(),
+                        Stream.from(tree.find(key)).toList().get());
+                assertEquals(Stream.from(expected.find(key, key + 13)).toList().get(),
+                        Stream.from(tree.find(key, key + 13)).toList().get());
+                assertEquals(Stream.from(expected.find(key, key + 13, true)).toList().get(),
+                        Stream.from(tree.find(key, key + 13, true)).toList().get());
+            }
+            assertEquals(Stream.from(expected.find(Long.MIN_VALUE, Long.MAX_VALUE, true)).toList().get(),
+                    Stream.from(tree.find(Long.MIN_VALUE, Long.MAX_VALUE, true)).toList().get());
+            assertEquals(Stream.from(expected.findAll()).toList().get(),
+                    Stream.from(tree.findAll()).toList().get());
+            Iterator<Long> it = tree.find(2000, 3000).iterator();
+            assertFalse(it.hasNext());
+            try {
+                it.next();
+                org.junit.Assert.fail();
+            } catch (NoSuchElementException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLongKeysCannotBeUsedWithConcurrentReaders() {
+        BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .concurrentReaders() //
+                .longKeys(Serializer.LONG);
+    }
+
+    private static BPlusTree<Long, Long> createLongKeys(Serializer<Long> keySerializer, int formatVersion) {
+        return BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .maxKeys(6) //
+                .formatVersion(formatVersion) //
+                .segmentSizeBytes(4096) //
+                .keySerializer(keySerializer) //
+                .valueSerializer(Serializer.LONG) //
+                .naturalOrder();
+    }
+
+    private static BPlusTree<Short, Integer> createFormatVersion2(File directory) {
+        return BPlusTree //
+                .file() //
+                .directory(directory) //
+                .maxKeys(5) //
+                // not a multiple of 8 so that some values straddle segments
+                .segmentSizeBytes(1000) //
+                .formatVersion(2) //
+                .keySerializer(Serializer.SHORT) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    /**
+     * Writes a tree in the format used before the index header was added (format
+     * version 1, big-endian, the first node straight after the root position):
+     * one leaf with keys 1, 2, 3 and values 10, 20, 30, segments of 1024 bytes
+     * and maxKeys 4.
+     */
+    private static void writeTreeWithoutHeader(File directory) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(1024);
+        index.putLong(0, 8);
+        index.put(8, (byte) Leaf.TYPE);
+        index.put(9, (byte) 3);
+        ByteBuffer values = ByteBuffer.allocate(1024);
+        for (int i = 0; i < 3; i++) {
+            index.putInt(10 + i * 12, i + 1);
+            index.putLong(14 + i * 12, i * Integer.BYTES);
+            values.putInt(i * Integer.BYTES, (i + 1) * 10);
+        }
+        // next leaf position after maxKeys entries
+        index.putLong(10 + 4 * 12, FactoryFile.POSITION_NOT_PRESENT);
+        Files.write(new File(directory, "index-0").toPath(), index.array());
+        Files.write(new File(directory, "value-0").toPath(), values.array());
+    }
+
+    private static BPlusTree<Integer, Integer> createInDirectory(File directory, int maxKeys) {
+        return createInDirectory(directory, maxKeys, 1);
+    }
+
+    private static BPlusTree<Integer, Integer> createInDirectory(File directory, int maxKeys, int formatVersion) {
+        return createInDirectory(directory, maxKeys, formatVersion, 1024);
+    }
+
+    private static BPlusTree<Integer, Integer> createInDirectory(File directory, int maxKeys, int formatVersion,
+            int segmentSizeBytes) {
+        return BPlusTree //
+                .file() //
+                .directory(directory) //
+                .maxKeys(maxKeys) //
+                .formatVersion(formatVersion) //
+                .segmentSizeBytes(segmentSizeBytes) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    private static BPlusTree<Integer, Integer> createDurable(Durability durability) {
+        return BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .maxKeys(4) //
+                .segmentSizeBytes(64 * 1024) //
+                .durability(durability) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
+    // bytes of the index taken by nodes, used or free
+    private static long extent(BPlusTree<?, ?> tree) {
+        StorageStats stats = tree.storageStats();
+        return stats.usedBytes() + stats.freeBytes();
+    }
+
+    private static BPlusTree<Integer, Integer> createConcurrentReaders() {
+        return createConcurrentReaders(Testing.newDirectory());
+    }
+
+    private static BPlusTree<Integer, Integer> createConcurrentReaders(File directory) {
+        return BPlusTree //
+                .file() //
+                .directory(directory) //
+                .maxKeys(4) //
+                .segmentSizeBytes(64 * 1024) //
+                .concurrentReaders() //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder();
+    }
+
 //    public static void main(String[] args) {
 //        BPlusTree<Long, Long> tree = BPlusTree //
 //                .file() //
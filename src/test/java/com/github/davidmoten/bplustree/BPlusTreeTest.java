@@ -9,8 +9,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -21,6 +23,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
+import com.github.davidmoten.bplustree.internal.Path;
 import com.github.davidmoten.guavamini.Lists;
 
 @RunWith(Parameterized.class)
@@ -42,9 +47,21 @@ public class BPlusTreeTest {
     private static final Function<Integer, BPlusTree<Integer, Integer>> creatorMemory = maxKeys -> BPlusTree
             .memory().maxKeys(maxKeys).naturalOrder();
 
+    private static final Function<Integer, BPlusTree<Integer, Integer>> creatorMemoryIntKeys = maxKeys -> BPlusTree
+            .memory().maxKeys(maxKeys).keyType(Integer.class).naturalOrder();
+
+    private static final Function<Integer, BPlusTree<Integer, Integer>> creatorOffHeap = maxKeys -> BPlusTree
+            .offHeap() //
+            .segmentSizeBytes(64 * 1024) //
+            .maxKeys(maxKeys) //
+            .keySerializer(Serializer.INTEGER) //
+            .valueSerializer(Serializer.INTEGER) //
+            .naturalOrder();
+
     @Parameters
     public static Collection<Object[]> creators() {
-        return Arrays.asList(new Object[][] { { creatorMemory }, { creatorFile } });
+        return Arrays.asList(new Object[][] { { creatorMemory }, { creatorFile }, { creatorMemoryIntKeys },
+                { creatorOffHeap } });
     }
 
     private final Function<Integer, BPlusTree<Integer, Integer>> creator;
@@ -110,6 +127,188 @@ public class BPlusTreeTest {
         }
     }
 
+    @Test
+    public void testInsertRecordsPathFromRoot() throws Exception {
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            for (int i = 0; i < 1000; i++) {
+                t.insert(i, i);
+            }
+            NonLeaf<Integer, Integer> root = (NonLeaf<Integer, Integer>) t.root();
+            int depth = 0;
+            Node<Integer, Integer> node = root;
+            while (node instanceof NonLeaf) {
+                node = ((NonLeaf<Integer, Integer>) node).child(0);
+                depth++;
+            }
+            Path<Integer, Integer> path = new Path<>();
+            // reuse the path for a second insert
+            for (int key : new int[] { -1, -2 }) {
+                root.insert(key, key, path);
+                assertEquals(depth, path.size());
+                assertTrue(path.node(0) == root);
+                for (int level = 0; level < depth; level++) {
+                    assertEquals(0, path.childIndex(level));
+                }
+            }
+            assertEquals(-2, (int) t.findFirst(-2));
+            assertEquals(-1, (int) t.findFirst(-1));
+        }
+    }
+
+    @Test
+    public void testMemoryLongKeysMatchObjectKeys() throws Exception {
+        for (Comparator<Long> comparator : Arrays.<Comparator<Long>>asList(Comparator.naturalOrder(),
+                Comparator.reverseOrder())) {
+            try (BPlusTree<Long, Integer> expected = BPlusTree.memory().maxKeys(4).comparator(comparator);
+                    BPlusTree<Long, Integer> tree = BPlusTree.memory().maxKeys(4).keyType(long.class)
+                            .comparator(comparator)) {
+                Random r = new Random(42);
+                for (int i = 0; i < 1000; i++) {
+                    long key = r.nextInt(600) - 300;
+                    expected.insert(key, i);
+                    tree.insert(key, i);
+                }
+                for (long key = -310; key <= 310; key += 3) {
+                    assertEquals(expected.findFirst(key), tree.findFirst(key));
+                    long a = comparator.compare(key, key + 17) < 0 ? key : key + 17;
+                    long b = a == key ? key + 17 : key;
+                    assertEquals(toList(expected.find(a, b)), toList(tree.find(a, b)));
+                }
+                assertEquals(toList(expected.findAll()), toList(tree.findAll()));
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteMatchesModelAndKeepsNodesBalanced() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            try (BPlusTree<Integer, Integer> t = create(maxKeys)) {
+                Random r = new Random(maxKeys);
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 2000; i++) {
+                    int key = r.nextInt(300);
+                    t.insert(key, i);
+                    expected.add(key + ":" + i);
+                }
+                for (int i = 0; i < 400; i++) {
+                    int key = r.nextInt(300);
+                    int n = r.nextInt(3);
+                    if (n == 0) {
+                        int before = expected.size();
+                        expected.removeIf(x -> x.startsWith(key + ":"));
+                        assertEquals(before - expected.size(), t.delete(key));
+                    } else if (n == 1) {
+                        String entry = expected.isEmpty() ? "0:0" : expected.get(r.nextInt(expected.size()));
+                        int k = Integer.parseInt(entry.split(":")[0]);
+                        int v = Integer.parseInt(entry.split(":")[1]);
+                        assertEquals(expected.remove(entry) ? 1 : 0, t.delete(k, v));
+                    } else {
+                        int finish = key + r.nextInt(5);
+                        int before = expected.size();
+                        expected.removeIf(x -> {
+                            int k = Integer.parseInt(x.split(":")[0]);
+                            return k >= key && k < finish;
+                        });
+                        assertEquals(before - expected.size(), t.deleteRange(key, finish));
+                    }
+                    checkNodes(t, maxKeys);
+                }
+                List<String> actual = toList(t.findAll((k, v) -> k + ":" + v));
+                List<Integer> keys = toList(t.findAll((k, v) -> k));
+                List<Integer> sortedKeys = new ArrayList<>(keys);
+                Collections.sort(sortedKeys);
+                assertEquals(sortedKeys, keys);
+                Collections.sort(actual);
+                Collections.sort(expected);
+                assertEquals(expected, actual);
+                // delete everything and the tree can be used again
+                assertEquals(expected.size(), t.deleteRange(0, 300));
+                assertTrue(t.root().numKeys() == 0);
+                assertFalse(t.findAll().iterator().hasNext());
+                t.insert(5, 6);
+                assertEquals(6, (int) t.findFirst(5));
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteAllDuplicatesAcrossLeaves() throws Exception {
+        try (BPlusTree<Integer, Integer> t = create(3)) {
+            for (int i = 0; i < 100; i++) {
+                t.insert(i % 3, i);
+            }
+            assertEquals(34, t.delete(0));
+            assertNull(t.findFirst(0));
+            assertEquals(66, toList(t.findAll()).size());
+            assertEquals(0, t.delete(1, 1000));
+            assertEquals(1, t.delete(1, 4));
+            List<Integer> list = toList(t.findAll());
+            assertEquals(65, list.size());
+            assertFalse(list.contains(4));
+            assertTrue(list.stream().allMatch(x -> x % 3 != 0));
+            checkNodes(t, 3);
+        }
+    }
+
+    @Test
+    public void testDeleteRangeShrinksTree() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            try (BPlusTree<Integer, Integer> t = create(maxKeys)) {
+                for (int i = 0; i < 1000; i++) {
+                    t.insert(i, i);
+                }
+                assertEquals(990, t.deleteRange(0, 990));
+                assertEquals(IntStream.range(990, 1000).boxed().collect(Collectors.toList()), toList(t.findAll()));
+                // merges leave no more leaves than remaining entries
+                assertTrue(countLeaves(t.root()) <= 10);
+                assertTrue(depth(t.root()) <= 4);
+                checkNodes(t, maxKeys);
+            }
+        }
+    }
+
+    private static int countLeaves(Node<Integer, Integer> node) {
+        if (node instanceof NonLeaf) {
+            NonLeaf<Integer, Integer> n = (NonLeaf<Integer, Integer>) node;
+            int count = 0;
+            for (int i = 0; i <= n.numKeys(); i++) {
+                count += countLeaves(n.child(i));
+            }
+            return count;
+        } else {
+            return 1;
+        }
+    }
+
+    private static void checkNodes(BPlusTree<Integer, Integer> t, int maxKeys) {
+        checkNodes(t.root(), maxKeys, true, depth(t.root()));
+    }
+
+    private static int depth(Node<Integer, Integer> node) {
+        int depth = 0;
+        while (node instanceof NonLeaf) {
+            node = ((NonLeaf<Integer, Integer>) node).child(0);
+            depth++;
+        }
+        return depth;
+    }
+
+    // checks all leaves are at the same depth, the root has at least two children
+    // and no node is over full
+    private static void checkNodes(Node<Integer, Integer> node, int maxKeys, boolean isRoot, int depth) {
+        int n = node.numKeys();
+        assertTrue(n <= maxKeys);
+        if (node instanceof NonLeaf) {
+            assertTrue(depth > 0);
+            assertTrue(!isRoot || n >= 1);
+            for (int i = 0; i <= n; i++) {
+                checkNodes(((NonLeaf<Integer, Integer>) node).child(i), maxKeys, false, depth - 1);
+            }
+        } else {
+            assertEquals(0, depth);
+        }
+    }
+
     @Test
     public void testSplitsCorrect3Entries() throws Exception {
         // verified with
@@ -525,4 +724,104 @@ public class BPlusTreeTest {
             assertFalse(it.hasNext());
         }
     }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 5; maxKeys++) {
+            for (int n = 0; n <= 100; n++) {
+                try (BPlusTree<Integer, Integer> tree = create(maxKeys)) {
+                    List<Integer> expected = IntStream.range(0, n).boxed().collect(Collectors.toList());
+                    tree.bulkLoad(entries(expected));
+                    assertEquals(expected, toList(tree.findAll()));
+                    for (int i = 0; i < n; i++) {
+                        assertEquals(i, (int) tree.findFirst(i));
+                    }
+                    assertEquals(Lists.newArrayList(), toList(tree.find(n, n + 10)));
+                    // check that the tree is still usable for normal inserts
+                    tree.insert(n, n);
+                    tree.insert(-1, -1);
+                    if (n > 0) {
+                        tree.insert(n / 2, n / 2);
+                    }
+                    List<Integer> list = toList(tree.findAll());
+                    assertEquals(n + (n > 0 ? 3 : 2), list.size());
+                    assertEquals(-1, (int) list.get(0));
+                    assertEquals(n, (int) list.get(list.size() - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulkLoadPacksLeaves() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(3)) {
+            tree.bulkLoad(entries(Lists.newArrayList(1, 2, 3, 4, 5, 6, 7, 8, 9)));
+            NodeWrapper<Integer, Integer> root = NodeWrapper.root(tree);
+            assertEquals(Arrays.asList(4, 7), root.keys());
+            List<NodeWrapper<Integer, Integer>> children = root.children();
+            assertEquals(3, children.size());
+            assertEquals(Arrays.asList(1, 2, 3), children.get(0).keys());
+            assertEquals(Arrays.asList(4, 5, 6), children.get(1).keys());
+            assertEquals(Arrays.asList(7, 8, 9), children.get(2).keys());
+        }
+    }
+
+    @Test
+    public void testBulkLoadDuplicatesRetainSuppliedOrder() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(2)) {
+            List<Entry<Integer, Integer>> list = Lists.newArrayList( //
+                    Entry.create(1, 1), Entry.create(2, 2), Entry.create(2, 3), Entry.create(2, 4),
+                    Entry.create(3, 5));
+            tree.bulkLoad(list.iterator());
+            assertEquals(Arrays.asList(1, 2, 3, 4, 5), toList(tree.findAll()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadOutOfOrderThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(2)) {
+            tree.bulkLoad(entries(Lists.newArrayList(1, 3, 2)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBulkLoadIntoNonEmptyTreeThrows() throws Exception {
+        try (BPlusTree<Integer, Integer> tree = create(2)) {
+            tree.insert(1, 1);
+            tree.bulkLoad(entries(Lists.newArrayList(2, 3)));
+        }
+    }
+
+    private static Iterator<Entry<Integer, Integer>> entries(List<Integer> keys) {
+        return keys.stream().map(x -> Entry.create(x, x)).iterator();
+    }
+
+    @Test
+    public void testCacheRightmostPathMemory() throws Exception {
+        for (int maxKeys = 2; maxKeys <= 5; maxKeys++) {
+            try (BPlusTree<Integer, Integer> tree = BPlusTree.memory().maxKeys(maxKeys).cacheRightmostPath()
+                    .naturalOrder()) {
+                checkAppendsWithOccasionalOutOfOrderInserts(tree);
+            }
+        }
+    }
+
+    static void checkAppendsWithOccasionalOutOfOrderInserts(BPlusTree<Integer, Integer> tree) {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int key = i % 17 == 0 ? i / 2 : i;
+            tree.insert(key, key);
+            expected.add(key);
+            if (i % 7 == 0) {
+                // duplicate of the current maximum
+                tree.insert(key, key);
+                expected.add(key);
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected, toList(tree.findAll()));
+        for (int key : expected) {
+            assertEquals(key, (int) tree.findFirst(key));
+        }
+    }
 }
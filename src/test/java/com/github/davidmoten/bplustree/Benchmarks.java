@@ -1,6 +1,7 @@
 package com.github.davidmoten.bplustree;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 
 import org.mapdb.BTreeMap;
@@ -11,12 +12,15 @@ import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+
 public class Benchmarks {
 
     private static final LargeByteBuffer a = createLong();
@@ -166,6 +170,104 @@ public class Benchmarks {
         }
     }
 
+    @State(Scope.Thread)
+    public static class Segmented {
+
+        private static final int SEGMENT_SIZE_BYTES = 4096;
+        private static final int READS = 1000;
+
+        // access cost should not depend on the number of segments
+        @Param({ "1", "100", "1000", "10000" })
+        int numSegments;
+
+        LargeMappedByteBuffer bb;
+
+        // positions spread evenly over all segments
+        long[] positions = new long[READS];
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            bb = new LargeMappedByteBuffer(Testing.newDirectory(), SEGMENT_SIZE_BYTES, "index-");
+            long size = (long) numSegments * SEGMENT_SIZE_BYTES;
+            for (int i = 0; i < READS; i++) {
+                // multiply by a prime so that consecutive reads hit different segments
+                positions[i] = ((i * 7919L) % (size / Long.BYTES)) * Long.BYTES;
+                bb.putLong(positions[i], i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws IOException {
+            bb.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Formats {
+
+        @Param({ "1", "2", "3" })
+        int formatVersion;
+
+        BPlusTree<Long, Long> tree;
+
+        @Setup(Level.Trial)
+        public void doSetup() {
+            tree = BPlusTree //
+                    .file() //
+                    .directory("target/bench-format") //
+                    .clearDirectory() //
+                    .deleteOnClose() //
+                    .maxKeys(32) //
+                    .segmentSizeMB(10) //
+                    .formatVersion(formatVersion) //
+                    .keySerializer(Serializer.LONG) //
+                    .valueSerializer(Serializer.LONG) //
+                    .naturalOrder();
+            for (long i = 0; i < NON_EMPTY_COUNT; i++) {
+                // spread the keys so inserts are not in order
+                long k = (i * 7919) % NON_EMPTY_COUNT;
+                tree.insert(k, k);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void doTearDown() throws Exception {
+            tree.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long searchFormat(Formats state) {
+        long sum = 0;
+        for (long i = 0; i < 1000; i++) {
+            sum += state.tree.findFirst((i * 104729) % NON_EMPTY_COUNT);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long scanFormat(Formats state) {
+        return count(state.tree.find(100000L, 200000L).iterator());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
+    @Measurement(iterations = ITERATIONS, time = TIME_SECONDS)
+    public long readLongsAcrossSegments(Segmented state) {
+        long sum = 0;
+        for (long position : state.positions) {
+            sum += state.bb.getLong(position);
+        }
+        return sum;
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.SingleShotTime)
     @Warmup(iterations = WARMUP_ITERATIONS, time = TIME_SECONDS)
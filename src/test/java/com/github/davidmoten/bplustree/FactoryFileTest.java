@@ -1,10 +1,21 @@
 package com.github.davidmoten.bplustree;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 
 import com.github.davidmoten.bplustree.internal.Factory;
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+import com.github.davidmoten.bplustree.internal.Leaf;
+import com.github.davidmoten.bplustree.internal.Node;
+import com.github.davidmoten.bplustree.internal.NodeCursor;
+import com.github.davidmoten.bplustree.internal.NonLeaf;
 import com.github.davidmoten.bplustree.internal.file.LeafFile;
 import com.github.davidmoten.bplustree.internal.file.NonLeafFile;
 
@@ -42,11 +53,63 @@ public class FactoryFileTest {
         }
     }
     
+    @Test
+    public void testNodesDoNotStraddleSegmentsOrPages() throws Exception {
+        int segmentSizeBytes = 10000;
+        // NODE_TYPE NUM_KEYS (KEY VALUE)* NEXT_LEAF_POSITION
+        int leafBytes = 1 + 1 + 3 * (4 + 8) + 8;
+        try (BPlusTree<Integer, Long> t = create(segmentSizeBytes)) {
+            Factory<Integer, Long> factory = t.factory();
+            for (int i = 0; i < 1000; i++) {
+                long offset = ((LeafFile<Integer, Long>) factory.createLeaf()).position() % segmentSizeBytes;
+                assertTrue(offset + leafBytes <= segmentSizeBytes);
+                assertEquals(offset / LargeMappedByteBuffer.PAGE_SIZE_BYTES,
+                        (offset + leafBytes - 1) / LargeMappedByteBuffer.PAGE_SIZE_BYTES);
+            }
+        }
+    }
+
+    @Test
+    public void testCursorReusesNodes() throws Exception {
+        try (BPlusTree<Integer, Long> t = create()) {
+            for (int i = 0; i < 100; i++) {
+                t.insert(i, (long) i);
+            }
+            NodeCursor<Integer, Long> cursor = t.factory().cursor();
+            NonLeaf<Integer, Long> root = (NonLeaf<Integer, Long>) t.root();
+            Node<Integer, Long> child = cursor.child(root, 0);
+            // descend to the first leaf reusing the same non-leaf
+            while (child instanceof NonLeaf) {
+                Node<Integer, Long> next = cursor.child((NonLeaf<Integer, Long>) child, 0);
+                if (next instanceof NonLeaf) {
+                    assertTrue(next == child);
+                }
+                child = next;
+            }
+            Leaf<Integer, Long> leaf = (Leaf<Integer, Long>) child;
+            List<Integer> keys = new ArrayList<>();
+            while (leaf != null) {
+                for (int i = 0; i < leaf.numKeys(); i++) {
+                    keys.add(leaf.key(i));
+                }
+                Leaf<Integer, Long> next = cursor.next(leaf);
+                assertTrue(next == null || next == leaf);
+                leaf = next;
+            }
+            assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), keys);
+        }
+    }
+
     private BPlusTree<Integer, Long> create() {
+        return create(50 * 1024 * 1024);
+    }
+
+    private BPlusTree<Integer, Long> create(int segmentSizeBytes) {
         return BPlusTree //
                 .file() //
                 .directory("target/facfile") //
                 .clearDirectory() //
+                .segmentSizeBytes(segmentSizeBytes) //
                 .maxKeys(3) //
                 .keySerializer(Serializer.INTEGER) //
                 .valueSerializer(Serializer.LONG) //
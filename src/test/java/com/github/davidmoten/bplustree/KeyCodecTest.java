@@ -0,0 +1,109 @@
+package com.github.davidmoten.bplustree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.bplustree.internal.LargeMappedByteBuffer;
+
+public class KeyCodecTest {
+
+    @Test
+    public void testLongOrderAndRoundTrip() throws IOException {
+        List<Long> list = new ArrayList<>(Arrays.asList(Long.MIN_VALUE, Long.MAX_VALUE, 0L, -1L, 1L));
+        Random r = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            list.add(r.nextLong());
+        }
+        check(KeyCodec.LONG, list);
+    }
+
+    @Test
+    public void testIntegerOrderAndRoundTrip() throws IOException {
+        List<Integer> list = new ArrayList<>(Arrays.asList(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 1));
+        Random r = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            list.add(r.nextInt());
+        }
+        check(KeyCodec.INTEGER, list);
+    }
+
+    @Test
+    public void testShortOrderAndRoundTrip() throws IOException {
+        List<Short> list = new ArrayList<>();
+        for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i += 97) {
+            list.add((short) i);
+        }
+        list.add(Short.MAX_VALUE);
+        check(KeyCodec.SHORT, list);
+    }
+
+    @Test
+    public void testDoubleOrderAndRoundTrip() throws IOException {
+        List<Double> list = new ArrayList<>(Arrays.asList(Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5,
+                -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 2.5, Double.MAX_VALUE, Double.POSITIVE_INFINITY,
+                Double.NaN));
+        Random r = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            list.add((r.nextDouble() - 0.5) * 1e10);
+        }
+        check(KeyCodec.DOUBLE, list);
+    }
+
+    @Test
+    public void testUtf8OrderAndRoundTrip() throws IOException {
+        check(KeyCodec.utf8(8), Arrays.asList("", "a", "ab", "abc", "b", "ba", "z", "\u00e9", "\u4e2d\u6587",
+                "zzzzzzzz"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUtf8TooLong() {
+        KeyCodec.utf8(2).encode("abc", new byte[2]);
+    }
+
+    private static <T extends Comparable<T>> void check(KeyCodec<T> codec, List<T> values) throws IOException {
+        List<T> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        List<byte[]> encoded = new ArrayList<>();
+        for (T t : values) {
+            byte[] bytes = new byte[codec.maxSize()];
+            codec.encode(t, bytes);
+            encoded.add(bytes);
+        }
+        encoded.sort(KeyCodecTest::compareUnsigned);
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 1000, "test-")) {
+            List<T> decoded = new ArrayList<>();
+            for (byte[] bytes : encoded) {
+                b.position(0);
+                b.put(bytes);
+                b.position(0);
+                decoded.add(codec.read(b));
+                // write produces the same bytes as encode
+                b.position(0);
+                codec.write(b, decoded.get(decoded.size() - 1));
+                byte[] written = new byte[codec.maxSize()];
+                b.get(0, written);
+                assertEquals(0, compareUnsigned(bytes, written));
+            }
+            assertEquals(sorted, decoded);
+        }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -4,9 +4,16 @@ import java.nio.ByteBuffer;
 
 public class LargeByteBufferDelegating implements LargeByteBuffer {
 
-    private final ByteBuffer bb = ByteBuffer.allocate(1024);
-  
-    
+    private final ByteBuffer bb;
+
+    public LargeByteBufferDelegating() {
+        this(ByteBuffer.allocate(1024));
+    }
+
+    private LargeByteBufferDelegating(ByteBuffer bb) {
+        this.bb = bb;
+    }
+
     @Override
     public long position() {
         return bb.position();
@@ -87,9 +94,77 @@ public class LargeByteBufferDelegating implements LargeByteBuffer {
         bb.putFloat(value);
     }
 
+    @Override
+    public byte get(long position) {
+        return bb.get((int) position);
+    }
+
+    @Override
+    public void put(long position, byte b) {
+        bb.put((int) position, b);
+    }
+
+    @Override
+    public void get(long position, byte[] dst) {
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] = bb.get((int) position + i);
+        }
+    }
+
+    @Override
+    public void put(long position, byte[] src) {
+        for (int i = 0; i < src.length; i++) {
+            bb.put((int) position + i, src[i]);
+        }
+    }
+
+    @Override
+    public void copy(long srcPosition, long dstPosition, int length) {
+        byte[] bytes = new byte[length];
+        get(srcPosition, bytes);
+        put(dstPosition, bytes);
+    }
+
+    @Override
+    public short getShort(long position) {
+        return bb.getShort((int) position);
+    }
+
+    @Override
+    public void putShort(long position, short value) {
+        bb.putShort((int) position, value);
+    }
+
+    @Override
+    public int getInt(long position) {
+        return bb.getInt((int) position);
+    }
+
+    @Override
+    public void putInt(long position, int value) {
+        bb.putInt((int) position, value);
+    }
+
+    @Override
+    public long getLong(long position) {
+        return bb.getLong((int) position);
+    }
+
+    @Override
+    public void putLong(long position, long value) {
+        bb.putLong((int) position, value);
+    }
+
     @Override
     public void commit() {
         // do nothing
     }
 
+    @Override
+    public LargeByteBuffer duplicate() {
+        ByteBuffer d = bb.duplicate();
+        d.position(0);
+        return new LargeByteBufferDelegating(d);
+    }
+
 }
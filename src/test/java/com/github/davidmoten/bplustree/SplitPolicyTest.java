@@ -0,0 +1,131 @@
+package com.github.davidmoten.bplustree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.bplustree.internal.Leaf;
+
+public class SplitPolicyTest {
+
+    @Test
+    public void testHalf() {
+        assertEquals(2, SplitPolicy.HALF.leafSplitIndex(0, 4));
+        assertEquals(3, SplitPolicy.HALF.leafSplitIndex(4, 5));
+        assertEquals(2, SplitPolicy.HALF.nonLeafSplitIndex(0, 4));
+        assertEquals(2, SplitPolicy.HALF.nonLeafSplitIndex(5, 5));
+    }
+
+    @Test
+    public void testAdaptiveAscending() {
+        SplitPolicy p = SplitPolicy.adaptive();
+        assertEquals(9, p.leafSplitIndex(10, 10));
+        assertEquals(9, p.nonLeafSplitIndex(10, 10));
+        assertEquals(2, p.leafSplitIndex(2, 2));
+        assertEquals(1, p.nonLeafSplitIndex(2, 2));
+    }
+
+    @Test
+    public void testAdaptiveDescending() {
+        SplitPolicy p = SplitPolicy.adaptive();
+        assertEquals(1, p.leafSplitIndex(0, 10));
+        assertEquals(1, p.nonLeafSplitIndex(0, 10));
+        assertEquals(1, p.leafSplitIndex(0, 2));
+        assertEquals(1, p.nonLeafSplitIndex(0, 2));
+        assertEquals(0, p.nonLeafSplitIndex(0, 1));
+    }
+
+    @Test
+    public void testAdaptiveNotAtEdgeSplitsInHalf() {
+        SplitPolicy p = SplitPolicy.adaptive();
+        assertEquals(5, p.leafSplitIndex(3, 10));
+        assertEquals(5, p.nonLeafSplitIndex(3, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdaptiveFractionTooSmall() {
+        SplitPolicy.adaptive(0.4);
+    }
+
+    @Test
+    public void testAdaptiveAscendingLeavesNearlyFull() throws Exception {
+        int n = 1000;
+        int maxKeys = 10;
+        try (BPlusTree<Integer, Integer> tree = BPlusTree.memory().maxKeys(maxKeys)
+                .splitPolicy(SplitPolicy.adaptive()).naturalOrder()) {
+            for (int i = 0; i < n; i++) {
+                tree.insert(i, i);
+            }
+            assertTrue(numLeaves(tree) <= n / 9 + 1);
+            checkAll(tree, n);
+        }
+    }
+
+    @Test
+    public void testAdaptiveDescendingLeavesNearlyFull() throws Exception {
+        int n = 1000;
+        int maxKeys = 10;
+        try (BPlusTree<Integer, Integer> tree = BPlusTree //
+                .file() //
+                .directory(Testing.newDirectory()) //
+                .clearDirectory() //
+                .maxKeys(maxKeys) //
+                .splitPolicy(SplitPolicy.adaptive()) //
+                .keySerializer(Serializer.INTEGER) //
+                .valueSerializer(Serializer.INTEGER) //
+                .naturalOrder()) {
+            for (int i = n - 1; i >= 0; i--) {
+                tree.insert(i, i);
+            }
+            assertTrue(numLeaves(tree) <= n / 9 + 1);
+            checkAll(tree, n);
+        }
+    }
+
+    @Test
+    public void testAdaptiveRandomOrder() throws Exception {
+        int n = 1000;
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            list.add(i);
+        }
+        Collections.shuffle(list, new Random(123));
+        for (int maxKeys = 2; maxKeys <= 6; maxKeys++) {
+            try (BPlusTree<Integer, Integer> tree = BPlusTree.memory().maxKeys(maxKeys)
+                    .splitPolicy(SplitPolicy.adaptive()).naturalOrder()) {
+                for (int i : list) {
+                    tree.insert(i, i);
+                }
+                checkAll(tree, n);
+            }
+        }
+    }
+
+    private static void checkAll(BPlusTree<Integer, Integer> tree, int n) {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            expected.add(i);
+            assertEquals(i, (int) tree.findFirst(i));
+        }
+        List<Integer> list = new ArrayList<>();
+        tree.findAll().forEach(list::add);
+        assertEquals(expected, list);
+    }
+
+    private static int numLeaves(BPlusTree<Integer, Integer> tree) {
+        int count = 0;
+        Leaf<Integer, Integer> leaf = tree.firstLeaf(tree.root());
+        while (leaf != null) {
+            count++;
+            leaf = leaf.next();
+        }
+        return count;
+    }
+
+}
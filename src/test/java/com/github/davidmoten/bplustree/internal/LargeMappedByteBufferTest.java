@@ -2,9 +2,15 @@ package com.github.davidmoten.bplustree.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -31,6 +37,57 @@ public class LargeMappedByteBufferTest {
         }
     }
 
+    @Test
+    public void testCopyOverlappingRangesWithinAndAcrossSegments() throws IOException {
+        int n = 100;
+        int[][] cases = { { 10, 13, 30 }, { 13, 10, 30 }, { 0, 50, 50 }, { 50, 0, 50 }, { 5, 6, 0 },
+                { 20, 20, 10 } };
+        for (int segmentSizeBytes : new int[] { 7, 64, 1000 }) {
+            for (int[] c : cases) {
+                try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), segmentSizeBytes,
+                        "index-")) {
+                    byte[] expected = new byte[n];
+                    for (int i = 0; i < n; i++) {
+                        expected[i] = (byte) i;
+                        b.put(i, (byte) i);
+                    }
+                    System.arraycopy(expected, c[0], expected, c[1], c[2]);
+                    b.position(3);
+                    b.copy(c[0], c[1], c[2]);
+                    assertEquals(3, b.position());
+                    byte[] bytes = new byte[n];
+                    b.get(0, bytes);
+                    assertArrayEquals(expected, bytes);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeapWriteReadAndCopyAcrossSegments() throws IOException {
+        try (LargeMappedByteBuffer b = LargeMappedByteBuffer.offHeap(7, ByteOrder.LITTLE_ENDIAN)) {
+            for (int i = 0; i < 100; i++) {
+                b.put(i, (byte) i);
+            }
+            b.putLong(3, 123456789012L);
+            assertEquals(123456789012L, b.getLong(3));
+            b.copy(0, 50, 20);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(b.get(i), b.get(50 + i));
+            }
+            assertEquals(ByteOrder.LITTLE_ENDIAN, b.order());
+            // nothing to force to disk
+            assertEquals(0, b.dirtyPageCount());
+            b.commit();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffHeapCannotLimitMappedSegments() {
+        new LargeMappedByteBuffer(null, 100, null, 1, LargeMappedByteBuffer.PREPARE_NEXT_SEGMENT_DISABLED, false,
+                ByteOrder.BIG_ENDIAN);
+    }
+
     @Test
     public void testWriteAndReadBytes() throws IOException {
         try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 2, "index-")) {
@@ -209,4 +266,196 @@ public class LargeMappedByteBufferTest {
         file.createNewFile();
         LargeMappedByteBuffer.checkFile(file, 20);
     }
+
+    @Test
+    public void testDuplicateSharesContentButNotPosition() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 6, "index-")) {
+            b.putLong(123);
+            LargeMappedByteBuffer d = b.duplicate();
+            assertEquals(0, d.position());
+            assertEquals(123, d.getLong());
+            // writes to the duplicate (including to a new segment) are visible to the
+            // original
+            d.putLong(456);
+            assertEquals(8, b.position());
+            assertEquals(456, b.getLong());
+        }
+    }
+
+    @Test
+    public void testDuplicatesReadAcrossSegmentsInParallel() throws Exception {
+        int n = 10000;
+        // segment size not a multiple of 8 so that many longs straddle segments
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 1003, "index-")) {
+            for (int i = 0; i < n; i++) {
+                b.putLong(i);
+                b.putDouble(i);
+            }
+            List<Thread> threads = new ArrayList<>();
+            AtomicInteger errors = new AtomicInteger();
+            for (int t = 0; t < 4; t++) {
+                LargeMappedByteBuffer d = b.duplicate();
+                int offset = t;
+                threads.add(new Thread(() -> {
+                    for (int i = offset; i < n; i += 3) {
+                        d.position(i * 16L);
+                        if (d.getLong() != i || d.getDouble() != i) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, errors.get());
+        }
+    }
+
+    @Test
+    public void testAbsoluteAccessorsAcrossSegmentsDoNotChangePosition() throws IOException {
+        for (int size = 1; size <= 9; size++) {
+            try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), size, "index-")) {
+                b.position(3);
+                for (long p = 0; p < 20; p++) {
+                    b.putLong(p * 15, -p * 1234567891011L);
+                    b.putInt(p * 15 + 8, (int) -p * 123456);
+                    b.putShort(p * 15 + 12, (short) -p);
+                    b.put(p * 15 + 14, (byte) p);
+                }
+                for (long p = 0; p < 20; p++) {
+                    assertEquals(-p * 1234567891011L, b.getLong(p * 15));
+                    assertEquals((int) -p * 123456, b.getInt(p * 15 + 8));
+                    assertEquals((short) -p, b.getShort(p * 15 + 12));
+                    assertEquals((byte) p, b.get(p * 15 + 14));
+                }
+                byte[] bytes = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+                b.put(301, bytes);
+                byte[] read = new byte[bytes.length];
+                b.get(301, read);
+                assertArrayEquals(bytes, read);
+                assertEquals(3, b.position());
+                // relative and absolute methods see the same content
+                b.position(15);
+                assertEquals(-1234567891011L, b.getLong());
+            }
+        }
+    }
+
+    @Test
+    public void testMaxMappedSegmentsUnmapsSegmentNotRecentlyUsed() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 8, "index-", 3)) {
+            b.putLong(0, 10);
+            b.putLong(8, 11);
+            b.putLong(16, 12);
+            assertEquals(3, b.mapCount());
+            assertEquals(0, b.unmapCount());
+            // every segment has been used so the clock goes round once and unmaps
+            // segment 0
+            b.putLong(24, 13);
+            assertEquals(4, b.mapCount());
+            assertEquals(1, b.unmapCount());
+            assertEquals(11, b.getLong(8));
+            // segment 2 is the only one not used since the clock passed it
+            assertEquals(10, b.getLong(0));
+            assertEquals(5, b.mapCount());
+            assertEquals(2, b.unmapCount());
+            assertEquals(11, b.getLong(8));
+            assertEquals(13, b.getLong(24));
+            assertEquals(5, b.mapCount());
+            assertEquals(12, b.getLong(16));
+            assertEquals(6, b.mapCount());
+            assertEquals(3, b.unmapCount());
+        }
+    }
+
+    @Test
+    public void testPrepareMapsNextSegmentInBackground() throws Exception {
+        File directory = Testing.newDirectory();
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-")) {
+            b.putLong(8, 42);
+        }
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 8, "index-",
+                LargeMappedByteBuffer.MAX_MAPPED_SEGMENTS_UNBOUNDED, 0.5, true, ByteOrder.BIG_ENDIAN)) {
+            b.putLong(0, 1);
+            assertEquals(1, b.mapCount());
+            // below the threshold
+            b.prepare(3);
+            Thread.sleep(100);
+            assertEquals(1, b.mapCount());
+            b.prepare(4);
+            long start = System.currentTimeMillis();
+            while (b.mapCount() < 2 && System.currentTimeMillis() - start < 10000) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, b.mapCount());
+            // touching pages kept the existing content
+            assertEquals(42, b.getLong(8));
+            assertEquals(2, b.mapCount());
+        }
+    }
+
+    @Test
+    public void testCommitForcesOnlyDirtyPages() throws IOException {
+        File directory = Testing.newDirectory();
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 4 * 4096, "index-")) {
+            assertEquals(0, b.dirtyPageCount());
+            b.putLong(0, 1);
+            b.putLong(16, 2);
+            assertEquals(1, b.dirtyPageCount());
+            // straddles pages 1 and 2
+            b.putLong(2 * 4096 - 4, 3);
+            assertEquals(3, b.dirtyPageCount());
+            // second segment
+            b.put(4 * 4096 + 1, new byte[] { 4, 5 });
+            assertEquals(4, b.dirtyPageCount());
+            // reads don't dirty pages
+            b.getLong(3 * 4096);
+            assertEquals(4, b.dirtyPageCount());
+            b.commit();
+            assertEquals(0, b.dirtyPageCount());
+            b.putInt(3 * 4096, 6);
+            assertEquals(1, b.dirtyPageCount());
+            b.commit();
+        }
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(directory, 4 * 4096, "index-")) {
+            assertEquals(3, b.getLong(2 * 4096 - 4));
+            assertEquals(5, b.get(4 * 4096 + 2));
+            assertEquals(6, b.getInt(3 * 4096));
+        }
+    }
+
+    @Test
+    public void testTakeDirtyPagesAndForceLater() throws IOException {
+        try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), 4096, "index-")) {
+            b.putLong(0, 1);
+            LargeMappedByteBuffer.Flush flush = b.takeDirtyPages();
+            assertEquals(0, b.dirtyPageCount());
+            b.putLong(4096, 2);
+            flush.add(b.takeDirtyPages());
+            assertFalse(flush.isEmpty());
+            flush.force();
+            assertTrue(b.takeDirtyPages().isEmpty());
+        }
+    }
+
+    @Test
+    public void testLittleEndianAcrossSegments() throws IOException {
+        for (int size = 1; size <= 9; size++) {
+            try (LargeMappedByteBuffer b = new LargeMappedByteBuffer(Testing.newDirectory(), size, "index-",
+                    LargeMappedByteBuffer.MAX_MAPPED_SEGMENTS_UNBOUNDED,
+                    LargeMappedByteBuffer.PREPARE_NEXT_SEGMENT_DISABLED, false, ByteOrder.LITTLE_ENDIAN)) {
+                b.putLong(3, 0x0102030405060708L);
+                assertEquals(0x0102030405060708L, b.getLong(3));
+                assertEquals(8, b.get(3));
+                b.putInt(20, 0x01020304);
+                assertEquals(0x01020304, b.getInt(20));
+                assertEquals(4, b.get(20));
+                b.putShort(30, (short) 0x0102);
+                assertEquals((short) 0x0102, b.getShort(30));
+                assertEquals(2, b.get(30));
+            }
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package com.github.davidmoten.bplustree.internal.memory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PrimitiveKeysTest {
+
+    @Test
+    public void testGetLocationLong() {
+        long[] keys = new long[] { 1, 1, 3, 3, 0, 0 };
+        int numKeys = 4;
+        // leaf search
+        assertEquals(0, PrimitiveKeys.getLocation(keys, numKeys, 0, true));
+        assertEquals(0, PrimitiveKeys.getLocation(keys, numKeys, 1, true));
+        assertEquals(2, PrimitiveKeys.getLocation(keys, numKeys, 2, true));
+        assertEquals(2, PrimitiveKeys.getLocation(keys, numKeys, 3, true));
+        assertEquals(4, PrimitiveKeys.getLocation(keys, numKeys, 4, true));
+        // non-leaf search
+        assertEquals(0, PrimitiveKeys.getLocation(keys, numKeys, 0, false));
+        assertEquals(2, PrimitiveKeys.getLocation(keys, numKeys, 1, false));
+        assertEquals(2, PrimitiveKeys.getLocation(keys, numKeys, 2, false));
+        assertEquals(4, PrimitiveKeys.getLocation(keys, numKeys, 3, false));
+        assertEquals(4, PrimitiveKeys.getLocation(keys, numKeys, 4, false));
+        assertEquals(0, PrimitiveKeys.getLocation(keys, 0, 4, false));
+    }
+
+    @Test
+    public void testGetLocationInt() {
+        int[] keys = new int[] { Integer.MIN_VALUE, 1, 3, 5 };
+        assertEquals(0, PrimitiveKeys.getLocation(keys, 4, Integer.MIN_VALUE, true));
+        assertEquals(1, PrimitiveKeys.getLocation(keys, 4, Integer.MIN_VALUE, false));
+        assertEquals(2, PrimitiveKeys.getLocation(keys, 4, 3, true));
+        assertEquals(3, PrimitiveKeys.getLocation(keys, 4, 3, false));
+        assertEquals(4, PrimitiveKeys.getLocation(keys, 4, Integer.MAX_VALUE, true));
+    }
+
+}